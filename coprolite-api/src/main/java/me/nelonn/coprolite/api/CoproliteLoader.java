@@ -72,6 +72,30 @@ public interface CoproliteLoader {
      */
     boolean isPluginLoaded(@NotNull String id);
 
+    /**
+     * Runs the entrypoint of a plugin with {@code "lazyEntrypoint": true} if it hasn't run yet.
+     *
+     * <p>A lazy entrypoint runs on the first call to {@link #getPluginContainer(String)} with the plugin's id, on the
+     * first {@link ObjectShare} query for one of its keys, or through this method, whichever comes first. Plugins
+     * depending on it don't initialize it, they access it like any other plugin. It runs exactly once, concurrent
+     * callers wait until it finished. Other entrypoints have already run once plugins are accessible.
+     *
+     * <p>A failing lazy entrypoint is logged once and not run again, accesses go on without the plugin's values while
+     * this method throws.
+     *
+     * <p>If the entrypoint is running on another thread which waits, directly or through other plugins' entrypoints,
+     * for a plugin the calling thread initializes, waiting would never end. This method throws an
+     * {@link IllegalStateException} naming the cycle then, while the other accesses return with the plugin not
+     * initialized yet.
+     *
+     * <p>The default implementation relies on {@link #getPluginContainer(String)} initializing the plugin.
+     *
+     * @param id the ID of the plugin
+     */
+    default void initializePlugin(@NotNull String id) {
+        getPluginContainer(id);
+    }
+
     final class Singleton {
         private static CoproliteLoader instance;
 
@@ -19,6 +19,10 @@ package me.nelonn.coprolite.api;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -70,7 +74,8 @@ public interface ObjectShare {
      *
      * <p>If there is already a value associated with the {@code key}, the consumer will be invoked directly, otherwise
      * when one of the {@code put} methods adds a value for the key. The invocation happens on the thread calling
-     * {@link #whenAvailable} or on whichever thread calls {@code put} with the same {@code key}.
+     * {@link #whenAvailable} or on whichever thread calls {@code put} with the same {@code key}. Use
+     * {@link #whenAvailableAsync(String, BiConsumer)} for consumers that shouldn't hold up that thread.
      *
      * <p>The request will only act once, not if the value changes again.
      *
@@ -98,6 +103,72 @@ public interface ObjectShare {
      */
     void whenAvailable(@NotNull String key, @NotNull Consumer<Object> consumer);
 
+    /**
+     * Request being notified on another thread when a key/value becomes available.
+     *
+     * <p>Like {@link #whenAvailable(String, BiConsumer)}, but the consumer runs on a thread owned by the loader, so
+     * the thread calling {@code put} returns right away whatever the consumer costs. The asynchronous consumers of a
+     * key run one after another in the order they were requested.
+     *
+     * <p>The default implementation runs the consumer on the {@link ForkJoinPool#commonPool() common pool}.
+     *
+     * @param key key to react upon, format {@code pluginid:subkey}
+     * @param consumer consumer receiving the key/value pair: key first, value second
+     */
+    default void whenAvailableAsync(@NotNull String key, @NotNull BiConsumer<String, Object> consumer) {
+        whenAvailableAsync(key, ForkJoinPool.commonPool(), consumer);
+    }
+
+    /**
+     * Request being notified on an executor when a key/value becomes available.
+     *
+     * <p>The asynchronous consumers of a key run one after another in the order they were requested, each on its own
+     * executor, for example a server's main thread executor.
+     *
+     * <p>The default implementation hands each consumer to the executor from {@link #whenAvailable(String, BiConsumer)}
+     * and doesn't order the consumers of a key, the loader's share does.
+     *
+     * @param key key to react upon, format {@code pluginid:subkey}
+     * @param executor executor to run the consumer on
+     * @param consumer consumer receiving the key/value pair: key first, value second
+     */
+    default void whenAvailableAsync(@NotNull String key, @NotNull Executor executor, @NotNull BiConsumer<String, Object> consumer) {
+        Objects.requireNonNull(executor, "null executor");
+        Objects.requireNonNull(consumer, "null consumer");
+        whenAvailable(key, (k, value) -> executor.execute(() -> consumer.accept(k, value)));
+    }
+
+    /**
+     * Get a future for the value of a specific key.
+     *
+     * <p>The future is completed right away if there is a value already, otherwise on a thread owned by the loader once
+     * a value is added, so dependent stages never run on the thread calling {@code put}.
+     *
+     * @param key key to wait for, format {@code pluginid:subkey}
+     * @return future completed with the value
+     */
+    @NotNull
+    default CompletableFuture<Object> await(@NotNull String key) {
+        return await(key, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Get a future for the value of a specific key, completed on the given executor.
+     *
+     * @param key key to wait for, format {@code pluginid:subkey}
+     * @param executor executor to complete the future on if there is no value yet
+     * @return future completed with the value
+     */
+    @NotNull
+    default CompletableFuture<Object> await(@NotNull String key, @NotNull Executor executor) {
+        Object value = get(key);
+        if (value != null) return CompletableFuture.completedFuture(value);
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        whenAvailableAsync(key, executor, (k, v) -> future.complete(v));
+        return future;
+    }
+
     /**
      * Set the value for a specific key.
      *
@@ -128,4 +199,60 @@ public interface ObjectShare {
      */
     @Nullable
     Object remove(@NotNull String key);
+
+    /**
+     * Get a handle for a specific key, for values that are queried often.
+     *
+     * <p>The key is validated and looked up once, {@link Handle#get()} then reads the current value directly. The
+     * handle keeps observing the key, values added, replaced or removed later are seen by the handle as well.
+     * <pre>
+     * private static final ObjectShare.Handle{@code<Runnable>} REFRESH = CoproliteLoader.getInstance().getObjectShare()
+     *         .handle("some_plugin:refresh", Runnable.class);
+     *
+     * Runnable refresh = REFRESH.get();
+     * if (refresh != null) refresh.run();
+     * </pre>
+     *
+     * <p>The default implementation queries the share on every call, only the loader's share skips the lookup.
+     *
+     * @param key key to observe, format {@code pluginid:subkey}
+     * @param type type of the value, values of other types are treated as absent
+     * @return handle for the key
+     */
+    @NotNull
+    default <T> Handle<T> handle(@NotNull String key, @NotNull Class<T> type) {
+        Objects.requireNonNull(key, "null key");
+        Objects.requireNonNull(type, "null type");
+        return new ObjectShareHandle<>(this, key, type);
+    }
+
+    /**
+     * Typed view of a single key, obtainable through {@link #handle(String, Class)}.
+     *
+     * @param <T> type of the value
+     */
+    interface Handle<T> {
+        @NotNull
+        String getKey();
+
+        @NotNull
+        Class<T> getType();
+
+        /**
+         * Get the current value of the key.
+         *
+         * @return value associated with the key or null if none or not of the handle's type
+         */
+        @Nullable
+        T get();
+
+        /**
+         * Request being notified when the key's value becomes available, see
+         * {@link ObjectShare#whenAvailable(String, Consumer)}. Like there the request acts once, if that value isn't of
+         * the handle's type the consumer isn't invoked and a warning is logged.
+         *
+         * @param consumer consumer receiving the value
+         */
+        void whenAvailable(@NotNull Consumer<? super T> consumer);
+    }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.api;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * {@link ObjectShare.Handle} of {@link ObjectShare#handle}'s default implementation, querying the share each time.
+ */
+record ObjectShareHandle<T>(ObjectShare share, String key, Class<T> type) implements ObjectShare.Handle<T> {
+    @Override
+    public @NotNull String getKey() {
+        return key;
+    }
+
+    @Override
+    public @NotNull Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public @Nullable T get() {
+        Object value = share.get(key);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    @Override
+    public void whenAvailable(@NotNull Consumer<? super T> consumer) {
+        Objects.requireNonNull(consumer, "null consumer");
+        share.whenAvailable(key, (k, value) -> {
+            if (type.isInstance(value)) {
+                consumer.accept(type.cast(value));
+            } else {
+                System.getLogger(ObjectShare.class.getName()).log(System.Logger.Level.WARNING, "ObjectShare value for {0} is a {1}, not a {2}, dropping a handle''s request for it",
+                        k, value.getClass().getName(), type.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,41 @@
+plugins {
+    id("java")
+}
+
+group = rootProject.group
+version = rootProject.version
+
+java.toolchain.languageVersion.set(JavaLanguageVersion.of(21))
+
+repositories {
+    mavenCentral()
+    maven("https://maven.fabricmc.net/")
+}
+
+var jmh_version = project.properties["jmh_version"].toString()
+
+dependencies {
+    implementation(project(":coprolite-loader"))
+    implementation(project(":coprolite-launcher"))
+
+    implementation("org.openjdk.jmh:jmh-core:${jmh_version}")
+    annotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:${jmh_version}")
+}
+
+// ./gradlew :coprolite-benchmarks:jmh -Pjmh="VersionParser -f 1"
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args((project.findProperty("jmh")?.toString() ?: "").split(" ").filter { it.isNotBlank() })
+}
+
+// ./gradlew :coprolite-benchmarks:syntheticStartup -Psynthetic="--classes 5000 --plugins 10 --mixins 20 --runs 5"
+tasks.register<JavaExec>("syntheticStartup") {
+    group = "benchmark"
+    description = "Measures startup and transform throughput of the launcher on a generated server"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("me.nelonn.coprolite.benchmarks.synthetic.StartupHarness")
+    args((project.findProperty("synthetic")?.toString() ?: "").split(" ").filter { it.isNotBlank() })
+}
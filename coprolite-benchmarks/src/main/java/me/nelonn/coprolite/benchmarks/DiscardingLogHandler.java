@@ -0,0 +1,46 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.nelonn.coprolite.benchmarks;
+
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import me.nelonn.coprolite.loader.impl.log.LogHandler;
+import me.nelonn.coprolite.loader.impl.log.LogLevel;
+
+/**
+ * Log handler keeping only the last message, so the benchmarks measure the logging front end and not the console.
+ */
+public final class DiscardingLogHandler implements LogHandler {
+    private final boolean enabled;
+    public String lastMessage;
+
+    public DiscardingLogHandler(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void log(long time, LogLevel level, LogCategory category, String msg, Throwable exc, boolean fromReplay, boolean wasSuppressed) {
+        lastMessage = msg;
+    }
+
+    @Override
+    public boolean shouldLog(LogLevel level, LogCategory category) {
+        return enabled;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.nelonn.coprolite.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Inputs of the benchmarks, checked in under {@code src/main/resources/fixtures}.
+ */
+public final class Fixtures {
+    public static final String VERSIONS = "versions.txt";
+    public static final String PREDICATES = "predicates.txt";
+    public static final String PLUGIN_MINIMAL = "plugins/minimal.json";
+    public static final String PLUGIN_EXAMPLE = "plugins/example.json";
+    public static final String PLUGIN_FULL = "plugins/full.json";
+
+    /**
+     * @return the lines of a fixture, without blank lines and {@code #} comments
+     */
+    public static @NotNull List<String> lines(@NotNull String name) {
+        return new String(bytes(name), StandardCharsets.UTF_8).lines()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .toList();
+    }
+
+    public static byte @NotNull [] bytes(@NotNull String name) {
+        try (InputStream is = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (is == null) throw new IllegalArgumentException("missing fixture " + name);
+            return is.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Fixtures() {
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.nelonn.coprolite.benchmarks;
+
+import me.nelonn.coprolite.loader.impl.log.ConsoleLogHandler;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import me.nelonn.coprolite.loader.impl.log.LogLevel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Log#logFormat} with output enabled and with the level disabled, the latter being the cost of every debug
+ * message in a production launch, and the line formatting of the console handler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LogBenchmark {
+    @Param({"true", "false"})
+    public boolean enabled;
+
+    private DiscardingLogHandler handler;
+    private int count;
+
+    @Setup
+    public void setup() {
+        handler = new DiscardingLogHandler(enabled);
+        Log.init(handler);
+    }
+
+    @Benchmark
+    public String logFormat() {
+        Log.logFormat(LogLevel.DEBUG, LogCategory.DISCOVERY, "Loading %d plugin%s from %s", count++, "s", "plugins");
+        return handler.lastMessage;
+    }
+
+    @Benchmark
+    public String logFormatException() {
+        Log.logFormat(LogLevel.WARN, LogCategory.CACHE, "Unable to read cache entry %s", "net/minecraft/server/Main", EXCEPTION);
+        return handler.lastMessage;
+    }
+
+    @Benchmark
+    public String logPlain() {
+        Log.log(LogLevel.DEBUG, LogCategory.LAUNCHER, "Preload list is outdated");
+        return handler.lastMessage;
+    }
+
+    @Benchmark
+    public String formatLine() {
+        return LineFormatter.format(System.currentTimeMillis(), LogLevel.INFO, LogCategory.DISCOVERY, "Loading 12 plugins from plugins");
+    }
+
+    private static final Exception EXCEPTION = new Exception("benchmark");
+
+    private static final class LineFormatter extends ConsoleLogHandler {
+        static String format(long time, LogLevel level, LogCategory category, String msg) {
+            return formatLog(time, level, category, msg, null);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.nelonn.coprolite.benchmarks;
+
+import me.nelonn.coprolite.api.ObjectShare;
+import me.nelonn.coprolite.loader.impl.ObjectShareImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * {@link ObjectShareImpl} shared by several threads, as plugins initializing in parallel would use it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectShareBenchmark {
+    private static final int KEYS = 64;
+    private static final String[] KEY_NAMES = new String[KEYS];
+
+    static {
+        for (int i = 0; i < KEYS; i++) {
+            KEY_NAMES[i] = "bench:key" + i;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Share {
+        public ObjectShareImpl share;
+        public ObjectShare.Handle<String>[] handles;
+
+        @Setup
+        @SuppressWarnings("unchecked")
+        public void setup() {
+            share = new ObjectShareImpl();
+            handles = new ObjectShare.Handle[4];
+
+            for (String key : KEY_NAMES) {
+                share.put(key, key);
+            }
+
+            for (int i = 0; i < handles.length; i++) {
+                handles[i] = share.handle(KEY_NAMES[i], String.class);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        public String pendingKey;
+        private int next;
+
+        @Setup
+        public void setup() {
+            int thread = THREADS.getAndIncrement();
+            pendingKey = "bench:pending" + thread;
+            next = thread * 7;
+        }
+
+        String nextKey() {
+            return KEY_NAMES[next++ & (KEYS - 1)];
+        }
+    }
+
+    /**
+     * Readers of existing keys alongside a writer replacing them.
+     */
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Object get(Share share, Cursor cursor) {
+        return share.share.get(cursor.nextKey());
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public Object put(Share share, Cursor cursor) {
+        String key = cursor.nextKey();
+        return share.share.put(key, key);
+    }
+
+    /**
+     * Readers only, all threads looking up the same few keys as plugins do from the tick thread and async threads.
+     */
+    @Benchmark
+    @Threads(8)
+    public Object contendedGet(Share share, Cursor cursor) {
+        return share.share.get(KEY_NAMES[cursor.next++ & 3]);
+    }
+
+    /**
+     * The same reads as {@link #contendedGet} through handles resolved up front.
+     */
+    @Benchmark
+    @Threads(8)
+    public String contendedHandleGet(Share share, Cursor cursor) {
+        return share.handles[cursor.next++ & 3].get();
+    }
+
+    /**
+     * Callbacks registered for keys that exist already, so they run right away.
+     */
+    @Benchmark
+    @Threads(4)
+    public void whenAvailableExisting(Share share, Cursor cursor, Blackhole bh) {
+        share.share.whenAvailable(cursor.nextKey(), (Consumer<Object>) bh::consume);
+    }
+
+    /**
+     * A callback waiting for a key, the put providing it and the removal of the key again, each thread on its own key.
+     */
+    @Benchmark
+    @Threads(4)
+    public Object whenAvailablePending(Share share, Cursor cursor, Blackhole bh) {
+        share.share.whenAvailable(cursor.pendingKey, (Consumer<Object>) bh::consume);
+        share.share.put(cursor.pendingKey, cursor);
+        return share.share.remove(cursor.pendingKey);
+    }
+}
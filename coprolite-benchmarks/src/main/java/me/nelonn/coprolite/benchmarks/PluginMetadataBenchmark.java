@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.nelonn.coprolite.benchmarks;
+
+import me.nelonn.coprolite.loader.impl.LoaderPluginMetadata;
+import me.nelonn.coprolite.loader.impl.plugin.PluginMetadataParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of {@code coprolite.plugin.json}, done once per discovered plugin.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PluginMetadataBenchmark {
+    @Param({Fixtures.PLUGIN_MINIMAL, Fixtures.PLUGIN_EXAMPLE, Fixtures.PLUGIN_FULL})
+    public String fixture;
+
+    private byte[] json;
+
+    @Setup
+    public void setup() {
+        json = Fixtures.bytes(fixture);
+    }
+
+    @Benchmark
+    public LoaderPluginMetadata parseMetadata() throws IOException {
+        return PluginMetadataParser.parseMetadata(new ByteArrayInputStream(json));
+    }
+}
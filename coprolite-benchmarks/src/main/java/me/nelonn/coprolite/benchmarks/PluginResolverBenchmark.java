@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.benchmarks;
+
+import me.nelonn.coprolite.loader.impl.plugin.PluginCandidate;
+import me.nelonn.coprolite.loader.impl.plugin.PluginMetadataParser;
+import me.nelonn.coprolite.loader.impl.plugin.PluginResolutionException;
+import me.nelonn.coprolite.loader.impl.plugin.PluginResolver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Dependency resolution of many plugins, each depending on two earlier ones, with every plugin present in a single
+ * version.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PluginResolverBenchmark {
+    @Param({"50", "500"})
+    public int plugins;
+
+    private Path jar;
+    private JarFile jarFile;
+    private List<PluginCandidate> candidates;
+    private PluginResolver resolver;
+
+    @Setup
+    public void setup() throws IOException {
+        jar = Files.createTempFile("coprolite-benchmark", ".jar");
+        try (JarOutputStream os = new JarOutputStream(Files.newOutputStream(jar))) {
+            os.putNextEntry(new JarEntry("coprolite.plugin.json"));
+        }
+        jarFile = new JarFile(jar.toFile());
+
+        candidates = new ArrayList<>(plugins);
+        for (int i = 0; i < plugins; i++) {
+            String depends = i == 0 ? "" : String.format("\"plugin%d\": \">=1.0.0\", \"plugin%d\": \"^1.0\"", i - 1, i / 2);
+            String json = String.format("{\"schemaVersion\": 0, \"id\": \"plugin%d\", \"version\": \"1.%d.0\", \"depends\": {%s}}", i, i, depends);
+            candidates.add(new PluginCandidate(PluginMetadataParser.parseMetadata(new StringReader(json)), jar, jarFile));
+        }
+
+        resolver = new PluginResolver(PluginResolver.getBuiltins());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        jarFile.close();
+        Files.delete(jar);
+    }
+
+    @Benchmark
+    public List<PluginCandidate> resolve() throws PluginResolutionException {
+        return resolver.resolve(candidates);
+    }
+}
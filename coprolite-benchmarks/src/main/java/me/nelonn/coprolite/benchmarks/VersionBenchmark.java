@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.nelonn.coprolite.benchmarks;
+
+import me.nelonn.coprolite.api.version.Version;
+import me.nelonn.coprolite.api.version.VersionInterval;
+import me.nelonn.coprolite.api.version.VersionParser;
+import me.nelonn.coprolite.api.version.VersionParsingException;
+import me.nelonn.coprolite.api.version.VersionPredicate;
+import me.nelonn.coprolite.api.version.VersionPredicateParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Version and predicate handling as done for every dependency of every plugin. Each operation runs over all fixture
+ * inputs, the score is per input set.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VersionBenchmark {
+    private List<String> versionStrings;
+    private List<String> predicateStrings;
+    private List<Version> versions;
+    private List<VersionPredicate> predicates;
+    private List<VersionInterval> intervals;
+
+    @Setup
+    public void setup() throws VersionParsingException {
+        versionStrings = Fixtures.lines(Fixtures.VERSIONS);
+        predicateStrings = Fixtures.lines(Fixtures.PREDICATES);
+        versions = new ArrayList<>();
+        predicates = new ArrayList<>();
+        intervals = new ArrayList<>();
+
+        for (String version : versionStrings) {
+            versions.add(VersionParser.parse(version, false));
+        }
+
+        for (String predicate : predicateStrings) {
+            VersionPredicate parsed = VersionPredicateParser.parse(predicate);
+            predicates.add(parsed);
+            if (parsed.getInterval() != null) intervals.add(parsed.getInterval());
+        }
+    }
+
+    @Benchmark
+    public void parseVersion(Blackhole bh) throws VersionParsingException {
+        for (String version : versionStrings) {
+            bh.consume(VersionParser.parse(version, false));
+        }
+    }
+
+    @Benchmark
+    public void parsePredicate(Blackhole bh) throws VersionParsingException {
+        for (String predicate : predicateStrings) {
+            bh.consume(VersionPredicateParser.parse(predicate));
+        }
+    }
+
+    /**
+     * Every predicate against every version.
+     */
+    @Benchmark
+    public void testPredicate(Blackhole bh) {
+        for (VersionPredicate predicate : predicates) {
+            for (Version version : versions) {
+                bh.consume(predicate.test(version));
+            }
+        }
+    }
+
+    /**
+     * Intersection of every pair of intervals.
+     */
+    @Benchmark
+    public void intervalAnd(Blackhole bh) {
+        for (VersionInterval a : intervals) {
+            for (VersionInterval b : intervals) {
+                bh.consume(a.and(b));
+            }
+        }
+    }
+
+    /**
+     * Union of every interval with the growing union of the others, as when merging the ranges of many dependents.
+     */
+    @Benchmark
+    public void intervalOr(Blackhole bh) {
+        List<VersionInterval> union = new ArrayList<>();
+
+        for (VersionInterval interval : intervals) {
+            union = interval.or(union);
+            bh.consume(union);
+        }
+    }
+}
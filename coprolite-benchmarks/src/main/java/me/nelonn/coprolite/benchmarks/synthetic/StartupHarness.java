@@ -0,0 +1,253 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.nelonn.coprolite.benchmarks.synthetic;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import me.nelonn.coprolite.loader.impl.SystemProperties;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Measures the overhead of the launcher on a {@link SyntheticServer}, without network access or a real server jar.
+ *
+ * <p>Each run starts two JVMs: the synthetic server on its own and the same server through the launcher with the
+ * generated plugins. Reported are the wall-clock time from starting the JVM to entering the server main and to having
+ * loaded every server class, and the throughput of the transformation pipeline in the launcher run. The transform
+ * cache is disabled unless enabled through {@code --jvm-arg}.
+ *
+ * <pre>
+ * StartupHarness [--classes 5000] [--plugins 10] [--mixins 20] [--runs 5] [--warmup 1] [--work &lt;dir&gt;] [--jvm-arg &lt;arg&gt;]...
+ * </pre>
+ *
+ * The results are printed and written to {@code report.json} in the work directory.
+ */
+public final class StartupHarness {
+    private static final long TIMEOUT_MINUTES = 10;
+    private static final int TAIL_LINES = 50;
+
+    public static void main(String[] args) throws Exception {
+        int classes = 5000;
+        int plugins = 10;
+        int mixins = 20;
+        int runs = 5;
+        int warmup = 1;
+        Path work = null;
+        List<String> jvmArgs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) throw new IllegalArgumentException("missing value for " + args[i]);
+
+            switch (args[i++]) {
+                case "--classes" -> classes = Integer.parseInt(value);
+                case "--plugins" -> plugins = Integer.parseInt(value);
+                case "--mixins" -> mixins = Integer.parseInt(value);
+                case "--runs" -> runs = Integer.parseInt(value);
+                case "--warmup" -> warmup = Integer.parseInt(value);
+                case "--work" -> work = Paths.get(value);
+                case "--jvm-arg" -> jvmArgs.add(value);
+                default -> throw new IllegalArgumentException("unknown option " + args[i - 1]);
+            }
+        }
+
+        if (work == null) work = Files.createTempDirectory("coprolite-synthetic");
+        Files.createDirectories(work);
+
+        Path serverJar = work.resolve("server.jar");
+        Path pluginsFolder = work.resolve("plugins");
+        Path agentJar = work.resolve("agent.jar");
+        SyntheticServer server = new SyntheticServer(classes, plugins, mixins);
+        server.writeServer(serverJar);
+        server.writePlugins(pluginsFolder);
+        writeAgent(agentJar);
+
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        List<String> baseline = new ArrayList<>();
+        baseline.add(java);
+        baseline.addAll(jvmArgs);
+        baseline.addAll(List.of("-cp", serverJar.toString(), SyntheticServerProvider.MAIN_CLASS));
+
+        List<String> coprolite = new ArrayList<>();
+        coprolite.add(java);
+        coprolite.add("-javaagent:" + agentJar);
+        coprolite.add("-D" + SystemProperties.SERVER + "=" + SyntheticServerProvider.NAME);
+        coprolite.add("-D" + SyntheticServerProvider.JAR_PROPERTY + "=" + serverJar);
+        coprolite.add("-D" + SystemProperties.PLUGINS_FOLDER + "=" + pluginsFolder);
+        coprolite.add("-D" + SystemProperties.CACHE_DIR + "=" + work.resolve("cache"));
+        coprolite.add("-D" + SystemProperties.TRANSFORM_CACHE + "=false");
+        coprolite.add("-D" + SystemProperties.STARTUP_REPORT + "=");
+        coprolite.addAll(jvmArgs);
+        coprolite.addAll(List.of("-cp", System.getProperty("java.class.path"), "me.nelonn.coprolite.launcher.impl.Launcher"));
+
+        System.out.printf("Synthetic server: %d classes (%d KiB), %d plugins with %d mixins each, %d runs%n", classes,
+                Files.size(serverJar) / 1024, plugins, mixins, runs);
+
+        List<Run> baselineRuns = new ArrayList<>();
+        List<Run> coproliteRuns = new ArrayList<>();
+
+        for (int i = -warmup; i < runs; i++) {
+            Run b = run(baseline, work);
+            Run c = run(coprolite, work);
+            if (c.transformClasses < 0) throw new IllegalStateException("launcher run didn't report transformation totals");
+
+            if (i >= 0) {
+                baselineRuns.add(b);
+                coproliteRuns.add(c);
+            }
+        }
+
+        double baselineMain = median(baselineRuns, Run::mainMillis);
+        double baselineLoaded = median(baselineRuns, Run::loadedMillis);
+        double coproliteMain = median(coproliteRuns, Run::mainMillis);
+        double coproliteLoaded = median(coproliteRuns, Run::loadedMillis);
+        double classesPerSecond = median(coproliteRuns, Run::classesPerSecond);
+        double bytesPerSecond = median(coproliteRuns, Run::bytesPerSecond);
+
+        System.out.printf("%-10s %12s %12s%n", "median", "to main", "all loaded");
+        System.out.printf("%-10s %9.1f ms %9.1f ms%n", "baseline", baselineMain, baselineLoaded);
+        System.out.printf("%-10s %9.1f ms %9.1f ms%n", "coprolite", coproliteMain, coproliteLoaded);
+        System.out.printf("%-10s %+9.1f ms %+9.1f ms%n", "overhead", coproliteMain - baselineMain, coproliteLoaded - baselineLoaded);
+        System.out.printf("Transformed %d classes per run, %.0f classes/s, %.2f MiB/s%n", coproliteRuns.get(0).transformClasses,
+                classesPerSecond, bytesPerSecond / (1024 * 1024));
+
+        JsonObject config = new JsonObject();
+        config.addProperty("classes", classes);
+        config.addProperty("plugins", plugins);
+        config.addProperty("mixins", mixins);
+        config.addProperty("runs", runs);
+
+        JsonObject report = new JsonObject();
+        report.add("config", config);
+        report.add("baseline", toJson(baselineRuns, baselineMain, baselineLoaded));
+        JsonObject coproliteJson = toJson(coproliteRuns, coproliteMain, coproliteLoaded);
+        coproliteJson.addProperty("transformClassesPerSecond", Math.round(classesPerSecond));
+        coproliteJson.addProperty("transformBytesPerSecond", Math.round(bytesPerSecond));
+        report.add("coprolite", coproliteJson);
+
+        Path reportFile = work.resolve("report.json");
+        Files.writeString(reportFile, new GsonBuilder().setPrettyPrinting().create().toJson(report), StandardCharsets.UTF_8);
+        System.out.println("Report written to " + reportFile);
+    }
+
+    private static Run run(List<String> command, Path work) throws IOException, InterruptedException {
+        long start = SyntheticMain.epochMicros();
+        Process process = new ProcessBuilder(command).directory(work.toFile()).redirectErrorStream(true).start();
+
+        long main = -1;
+        long loaded = -1;
+        long transformClasses = -1;
+        long transformBytes = -1;
+        long transformNanos = -1;
+        Deque<String> tail = new ArrayDeque<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(SyntheticMain.MAIN_MARKER)) {
+                    main = Long.parseLong(line.substring(SyntheticMain.MAIN_MARKER.length()).trim());
+                } else if (line.startsWith(SyntheticMain.LOADED_MARKER)) {
+                    String[] parts = line.substring(SyntheticMain.LOADED_MARKER.length()).trim().split(" ");
+                    loaded = Long.parseLong(parts[1]);
+                } else if (line.startsWith(SyntheticServerProvider.TRANSFORM_MARKER)) {
+                    String[] parts = line.substring(SyntheticServerProvider.TRANSFORM_MARKER.length()).trim().split(" ");
+                    transformClasses = Long.parseLong(parts[0]);
+                    transformBytes = Long.parseLong(parts[1]);
+                    transformNanos = Long.parseLong(parts[2]);
+                }
+
+                tail.addLast(line);
+                if (tail.size() > TAIL_LINES) tail.removeFirst();
+            }
+        }
+
+        if (!process.waitFor(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+            throw new IllegalStateException("timed out: " + String.join(" ", command));
+        }
+
+        if (process.exitValue() != 0 || main < 0 || loaded < 0) {
+            throw new IllegalStateException("run failed with exit code " + process.exitValue() + ": " + String.join(" ", command)
+                    + System.lineSeparator() + String.join(System.lineSeparator(), tail));
+        }
+
+        return new Run((main - start) / 1000.0, (loaded - start) / 1000.0, transformClasses, transformBytes, transformNanos);
+    }
+
+    private static void writeAgent(Path jar) throws IOException {
+        // The agent class is on the class path already, the jar only points the JVM to it
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Premain-Class", "me.nelonn.coprolite.launcher.impl.CoproliteAgent");
+        manifest.getMainAttributes().putValue("Can-Redefine-Classes", "true");
+        manifest.getMainAttributes().putValue("Can-Retransform-Classes", "true");
+
+        try (JarOutputStream ignored = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+        }
+    }
+
+    private static double median(List<Run> runs, ToDoubleFunction<Run> value) {
+        double[] values = runs.stream().mapToDouble(value).sorted().toArray();
+        if (values.length == 0) return Double.NaN;
+        int mid = values.length / 2;
+        return values.length % 2 == 1 ? values[mid] : (values[mid - 1] + values[mid]) / 2;
+    }
+
+    private static JsonObject toJson(List<Run> runs, double medianMain, double medianLoaded) {
+        JsonArray main = new JsonArray();
+        JsonArray loaded = new JsonArray();
+
+        for (Run run : runs) {
+            main.add(Math.round(run.mainMillis * 10) / 10.0);
+            loaded.add(Math.round(run.loadedMillis * 10) / 10.0);
+        }
+
+        JsonObject ret = new JsonObject();
+        ret.addProperty("mainMs", Math.round(medianMain * 10) / 10.0);
+        ret.addProperty("loadedMs", Math.round(medianLoaded * 10) / 10.0);
+        ret.add("runsMainMs", main);
+        ret.add("runsLoadedMs", loaded);
+        return ret;
+    }
+
+    private record Run(double mainMillis, double loadedMillis, long transformClasses, long transformBytes, long transformNanos) {
+        double classesPerSecond() {
+            return transformNanos > 0 ? transformClasses * 1e9 / transformNanos : 0;
+        }
+
+        double bytesPerSecond() {
+            return transformNanos > 0 ? transformBytes * 1e9 / transformNanos : 0;
+        }
+    }
+
+    private StartupHarness() {
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.nelonn.coprolite.benchmarks.synthetic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Main class of the synthetic server. It is copied into the server jar, so it must only depend on the JDK.
+ *
+ * <p>Prints when it was entered, then loads, initializes and calls every generated class and prints when it is done.
+ */
+public final class SyntheticMain {
+    public static final String CLASS_LIST = "synthetic/classes.txt";
+    public static final String MAIN_MARKER = "synthetic-main ";
+    public static final String LOADED_MARKER = "synthetic-loaded ";
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(MAIN_MARKER + epochMicros());
+
+        ClassLoader loader = SyntheticMain.class.getClassLoader();
+        List<String> classes;
+
+        try (InputStream is = loader.getResourceAsStream(CLASS_LIST)) {
+            if (is == null) throw new IOException("missing " + CLASS_LIST);
+            classes = new String(is.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+        }
+
+        for (String name : classes) {
+            Class<?> c = Class.forName(name, true, loader);
+            Object instance = c.getConstructor().newInstance();
+            c.getMethod("work").invoke(instance);
+        }
+
+        System.out.println(LOADED_MARKER + classes.size() + " " + epochMicros());
+    }
+
+    public static long epochMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1000;
+    }
+
+    private SyntheticMain() {
+    }
+}
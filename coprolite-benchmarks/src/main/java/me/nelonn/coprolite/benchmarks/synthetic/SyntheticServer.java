@@ -0,0 +1,212 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.nelonn.coprolite.benchmarks.synthetic;
+
+import me.nelonn.coprolite.benchmarks.Fixtures;
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates a synthetic server jar and plugins with mixins into it.
+ *
+ * <p>The server consists of {@link SyntheticMain} and {@code classes} generated classes of a few methods each. Every
+ * plugin carries one mixin config with {@code mixins} mixins, each injecting into the {@code work} method of another
+ * server class. The plugin metadata and mixin config are built from the templates in {@code fixtures/synthetic}.
+ */
+public final class SyntheticServer {
+    private static final String MIXIN = "Lorg/spongepowered/asm/mixin/Mixin;";
+    private static final String INJECT = "Lorg/spongepowered/asm/mixin/injection/Inject;";
+    private static final String AT = "Lorg/spongepowered/asm/mixin/injection/At;";
+    private static final String CALLBACK_INFO = "Lorg/spongepowered/asm/mixin/injection/callback/CallbackInfo;";
+    private static final int COMPUTE_METHODS = 8;
+
+    private final int classes;
+    private final int plugins;
+    private final int mixins;
+
+    public SyntheticServer(int classes, int plugins, int mixins) {
+        if (classes <= 0) throw new IllegalArgumentException("at least one class is required");
+        if (mixins > classes) throw new IllegalArgumentException("more mixins per plugin than classes");
+        this.classes = classes;
+        this.plugins = plugins;
+        this.mixins = mixins;
+    }
+
+    /**
+     * @return internal name of a generated server class
+     */
+    public static @NotNull String className(int index) {
+        return "synthetic/server/p" + index / 100 + "/C" + index;
+    }
+
+    public void writeServer(@NotNull Path jar) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, SyntheticMain.class.getName());
+
+        List<String> names = new ArrayList<>();
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            String main = SyntheticMain.class.getName().replace('.', '/') + ".class";
+            try (InputStream is = SyntheticMain.class.getClassLoader().getResourceAsStream(main)) {
+                if (is == null) throw new IOException("missing " + main);
+                write(out, main, is.readAllBytes());
+            }
+
+            for (int i = 0; i < classes; i++) {
+                write(out, className(i) + ".class", generateClass(i));
+                names.add(className(i).replace('/', '.'));
+            }
+
+            write(out, SyntheticMain.CLASS_LIST, String.join("\n", names).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Writes the plugin jars into a directory.
+     */
+    public void writePlugins(@NotNull Path directory) throws IOException {
+        Files.createDirectories(directory);
+        String pluginTemplate = new String(Fixtures.bytes("synthetic/coprolite.plugin.json"), StandardCharsets.UTF_8);
+        String mixinsTemplate = new String(Fixtures.bytes("synthetic/plugin.mixins.json"), StandardCharsets.UTF_8);
+
+        for (int p = 0; p < plugins; p++) {
+            String id = "synthetic" + p;
+            String pkg = "synthetic/plugin" + p + "/mixin";
+            List<String> mixinNames = new ArrayList<>();
+
+            try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(directory.resolve(id + ".jar")))) {
+                for (int m = 0; m < mixins; m++) {
+                    int target = (p * mixins + m) % classes;
+                    String name = "C" + target + "Mixin";
+                    write(out, pkg + "/" + name + ".class", generateMixin(pkg + "/" + name, className(target), id));
+                    mixinNames.add('"' + name + '"');
+                }
+
+                write(out, "coprolite.plugin.json", pluginTemplate.replace("${id}", id).getBytes(StandardCharsets.UTF_8));
+                write(out, id + ".mixins.json", mixinsTemplate
+                        .replace("${package}", pkg.replace('/', '.'))
+                        .replace("${mixins}", String.join(", ", mixinNames))
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static byte[] generateClass(int index) {
+        String name = className(index);
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V21, ACC_PUBLIC | ACC_SUPER, name, null, "java/lang/Object", null);
+        cw.visitField(ACC_PRIVATE, "counter", "I", null, null).visitEnd();
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, "name", "Ljava/lang/String;", null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitLdcInsn(name.replace('/', '.'));
+        mv.visitFieldInsn(PUTFIELD, name, "name", "Ljava/lang/String;");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "work", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitInsn(DUP);
+        mv.visitFieldInsn(GETFIELD, name, "counter", "I");
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IADD);
+        mv.visitFieldInsn(PUTFIELD, name, "counter", "I");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // Filler so the classes have a realistic size and constant pool
+        for (int i = 0; i < COMPUTE_METHODS; i++) {
+            mv = cw.visitMethod(ACC_PUBLIC, "compute" + i, "(I)I", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ILOAD, 1);
+            mv.visitLdcInsn(index * 31 + i);
+            mv.visitInsn(IMUL);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, name, "counter", "I");
+            mv.visitInsn(IADD);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, name, "name", "Ljava/lang/String;");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+            mv.visitInsn(IADD);
+            mv.visitInsn(IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] generateMixin(String name, String target, String pluginId) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V21, ACC_PUBLIC | ACC_ABSTRACT | ACC_SUPER, name, null, "java/lang/Object", null);
+
+        AnnotationVisitor mixin = cw.visitAnnotation(MIXIN, false);
+        AnnotationVisitor targets = mixin.visitArray("targets");
+        targets.visit(null, target.replace('/', '.'));
+        targets.visitEnd();
+        mixin.visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PRIVATE, pluginId + "$onWork", "(" + CALLBACK_INFO + ")V", null, null);
+        AnnotationVisitor inject = mv.visitAnnotation(INJECT, true);
+        AnnotationVisitor method = inject.visitArray("method");
+        method.visit(null, "work");
+        method.visitEnd();
+        AnnotationVisitor at = inject.visitArray("at");
+        AnnotationVisitor head = at.visitAnnotation(null, AT);
+        head.visit("value", "HEAD");
+        head.visitEnd();
+        at.visitEnd();
+        inject.visitEnd();
+        mv.visitCode();
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void write(JarOutputStream out, String name, byte[] data) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(data);
+        out.closeEntry();
+    }
+}
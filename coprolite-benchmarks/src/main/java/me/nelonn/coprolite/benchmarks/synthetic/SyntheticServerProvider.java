@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.nelonn.coprolite.benchmarks.synthetic;
+
+import me.nelonn.coprolite.launcher.api.IServerProvider;
+import me.nelonn.coprolite.launcher.impl.Launcher;
+import me.nelonn.coprolite.loader.api.CoproliteLauncher;
+import me.nelonn.coprolite.loader.impl.TransformTimings;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Paths;
+
+/**
+ * Server provider running the server generated by {@link SyntheticServer}, selected by {@code -Dcoprolite.server=synthetic}.
+ *
+ * <p>Once the server main returns, the transformation totals are printed for {@link StartupHarness}.
+ */
+public class SyntheticServerProvider implements IServerProvider {
+    public static final String NAME = "synthetic";
+    public static final String JAR_PROPERTY = "coprolite.synthetic.jar";
+    public static final String MAIN_CLASS = "me.nelonn.coprolite.benchmarks.synthetic.SyntheticMain";
+    public static final String TRANSFORM_MARKER = "synthetic-transform ";
+
+    @Override
+    public @NotNull String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean validate() {
+        return System.getProperty(JAR_PROPERTY) != null;
+    }
+
+    @Override
+    public void load(CoproliteLauncher launcher, String[] args) {
+        launcher.addToClassPath(Paths.get(System.getProperty(JAR_PROPERTY)));
+    }
+
+    @Override
+    public void execute(String[] args) {
+        Thread runThread = new Thread(() -> {
+            try {
+                final Class<?> mainClass = Class.forName(MAIN_CLASS, true, CoproliteLauncher.getInstance().getTargetClassLoader());
+                final MethodHandle mainHandle = MethodHandles.lookup().findStatic(mainClass, "main", MethodType.methodType(void.class, String[].class)).asFixedArity();
+                if (CoproliteLauncher.getInstance() instanceof Launcher launcher) {
+                    launcher.onServerMainStarting();
+                }
+                mainHandle.invoke((Object) args);
+                if (CoproliteLauncher.getInstance() instanceof Launcher launcher) {
+                    launcher.onServerStarted();
+                }
+            } catch (final Throwable t) {
+                throw new RuntimeException(t);
+            }
+
+            long nanos = 0;
+            for (TransformTimings.Stage stage : TransformTimings.Stage.values()) {
+                nanos += TransformTimings.getTotal(stage);
+            }
+            System.out.println(TRANSFORM_MARKER + TransformTimings.getClassCount() + " " + TransformTimings.getTotalBytes() + " " + nanos);
+        }, "ServerMain");
+        runThread.setContextClassLoader(CoproliteLauncher.getInstance().getTargetClassLoader());
+        runThread.start();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.nelonn.coprolite.loader.impl.mixin;
+
+import me.nelonn.coprolite.benchmarks.DiscardingLogHandler;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import org.openjdk.jmh.annotations.*;
+import org.spongepowered.asm.logging.Level;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MixinLogger} translating Log4J style messages, in the package of the logger as it isn't public.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MixinLoggerBenchmark {
+    @Param({"true", "false"})
+    public boolean enabled;
+
+    private DiscardingLogHandler handler;
+    private MixinLogger logger;
+
+    @Setup
+    public void setup() {
+        handler = new DiscardingLogHandler(enabled);
+        Log.init(handler);
+        logger = new MixinLogger("mixin");
+    }
+
+    @Benchmark
+    public String plain() {
+        logger.log(Level.INFO, "Compatibility level set to JAVA_21");
+        return handler.lastMessage;
+    }
+
+    @Benchmark
+    public String placeholders() {
+        logger.log(Level.INFO, "Mixing {} from {} into {}", "MixinCraftServer", "example.mixins.json", "org.bukkit.craftbukkit.CraftServer");
+        return handler.lastMessage;
+    }
+
+    @Benchmark
+    public String arrayAndException() {
+        logger.log(Level.WARN, "Injection into {} failed for \\{} {}", ARGS, "target", EXCEPTION);
+        return handler.lastMessage;
+    }
+
+    private static final String[] ARGS = {"a", "b", "c"};
+    private static final Exception EXCEPTION = new Exception("benchmark");
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.launcher.impl;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import me.nelonn.coprolite.loader.impl.CoproliteLoaderImpl;
+import me.nelonn.coprolite.loader.impl.CoproliteTransformer;
+import me.nelonn.coprolite.loader.impl.LoaderUtil;
+import me.nelonn.coprolite.loader.impl.SystemProperties;
+import me.nelonn.coprolite.loader.impl.TransformTargetIndex;
+import me.nelonn.coprolite.loader.impl.TransformTimings;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import me.nelonn.coprolite.loader.impl.plugin.PluginContainerImpl;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Server classes transformed ahead of time.
+ *
+ * <p>In bake mode ({@code -Dcoprolite.bake=true}) the launcher bootstraps as usual, runs the transformation pipeline
+ * over every targeted class of the server class path and writes the results to a jar instead of starting the server.
+ * The jar carries a manifest with the fingerprint of the inputs, see {@link TransformCache}, and the hash of each
+ * class before transformation. Later launches with the same fingerprint take the baked bytes of a class whose hash
+ * matches and run the pipeline only for the rest.
+ *
+ * <p>Entries are stored uncompressed, so they are read straight from the mapped jar. Baked classes bypass Mixin, so
+ * neither baking nor the baked jar is available while any mixin config declares a config plugin, see
+ * {@link TransformTargetIndex#mayUseConfigPlugins}. Classes other targets extend or implement aren't baked either,
+ * see {@link TransformTargetIndex#isSupertypeTarget}, the classes transformed at runtime would miss their mixins.
+ */
+public final class BakedJar {
+    public static final String DEFAULT_FILE = "baked.jar";
+    private static final String MANIFEST = "META-INF/coprolite/baked.json";
+    private static final int FORMAT_VERSION = 1;
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(BakedJar::createDigest);
+
+    private final SimpleClassPath classPath;
+    private final Map<String, BakedClass> classes;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger mismatches = new AtomicInteger();
+
+    private BakedJar(SimpleClassPath classPath, Map<String, BakedClass> classes) {
+        this.classPath = classPath;
+        this.classes = classes;
+    }
+
+    public static @NotNull Path getPath() {
+        String path = System.getProperty(SystemProperties.BAKED_JAR);
+        return path != null ? LoaderUtil.normalizePath(Paths.get(path)) : TransformCache.getCacheDirectory().resolve(DEFAULT_FILE);
+    }
+
+    /**
+     * Opens the baked jar if it was baked for the current inputs.
+     *
+     * @param fingerprint fingerprint of the inputs, see {@link TransformCache#fingerprint}
+     * @return the baked jar or null if there is none or it is outdated
+     */
+    public static @Nullable BakedJar open(@NotNull String fingerprint) {
+        Path path = getPath();
+        if (!Files.isRegularFile(path)) return null;
+
+        SimpleClassPath cp = new SimpleClassPath(List.of(path));
+
+        try {
+            byte[] manifest = cp.getBytes(MANIFEST);
+            if (manifest == null) throw new IOException("missing " + MANIFEST);
+
+            JsonObject json = JsonParser.parseString(new String(manifest, StandardCharsets.UTF_8)).getAsJsonObject();
+            if (json.get("format").getAsInt() != FORMAT_VERSION || !json.get("fingerprint").getAsString().equals(fingerprint)) {
+                Log.info(LogCategory.CACHE, "Baked jar %s is outdated, transforming at runtime", path);
+                cp.close();
+                return null;
+            }
+
+            Map<String, BakedClass> classes = new HashMap<>();
+            for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("classes").entrySet()) {
+                JsonObject value = entry.getValue().getAsJsonObject();
+                classes.put(entry.getKey(), new BakedClass(HexFormat.of().parseHex(value.get("input").getAsString()), value.get("changed").getAsBoolean()));
+            }
+
+            Log.info(LogCategory.CACHE, "Using baked jar %s with %d class%s", path, classes.size(), classes.size() != 1 ? "es" : "");
+            return new BakedJar(cp, classes);
+        } catch (IOException | RuntimeException e) {
+            Log.warn(LogCategory.CACHE, "Unable to read baked jar " + path + ", transforming at runtime", e);
+
+            try {
+                cp.close();
+            } catch (IOException ignored) {
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the baked output of a class.
+     *
+     * @param className internal name of the class
+     * @param input untransformed class bytes
+     * @return the baked output, {@code input} if the class was baked as unchanged, or null if the class wasn't baked
+     * from the same input
+     */
+    public byte @Nullable [] get(@NotNull String className, byte @NotNull [] input) {
+        BakedClass baked = classes.get(className);
+        if (baked == null) return null;
+
+        if (!MessageDigest.isEqual(baked.inputHash, hash(input))) {
+            mismatches.incrementAndGet();
+            return null;
+        }
+
+        if (!baked.changed) {
+            hits.incrementAndGet();
+            return input;
+        }
+
+        try {
+            byte[] output = classPath.getBytes(className + ".class");
+            if (output != null) hits.incrementAndGet();
+            return output;
+        } catch (IOException e) {
+            Log.debug(LogCategory.CACHE, "Unable to read baked class " + className, e);
+            return null;
+        }
+    }
+
+    public void logStats() {
+        Log.info(LogCategory.CACHE, "Baked jar: %d hit%s, %d mismatch%s", hits.get(), hits.get() != 1 ? "s" : "",
+                mismatches.get(), mismatches.get() != 1 ? "es" : "");
+    }
+
+    /**
+     * Transforms every targeted class of the server class path and writes the results to {@link #getPath()}.
+     *
+     * @param launcher the launcher, mixin bootstrapping must be finished
+     * @param fingerprint fingerprint of the inputs, see {@link TransformCache#fingerprint}
+     * @param serverClassPath the code sources to bake, in class path order
+     */
+    public static void bake(@NotNull Launcher launcher, @NotNull String fingerprint, @NotNull List<Path> serverClassPath) throws IOException {
+        Path path = getPath();
+        long start = System.nanoTime();
+        TransformTargetIndex targetIndex = launcher.getTargetIndex();
+        GameTransformer gameTransformer = launcher.getProvider().getTransformer();
+
+        JsonObject classes = new JsonObject();
+        Set<String> seen = new HashSet<>();
+        int changed = 0;
+        int failed = 0;
+
+        // Mixin only learns the mixins of a class by applying them, the classes extending one must be baked after it
+        for (String className : targetIndex.getSupertypeTargets()) {
+            try {
+                CoproliteTransformer.transform(className, launcher.getRawClassBytes(className),
+                        gameTransformer != null ? gameTransformer::transform : null, new TransformTimings());
+            } catch (Throwable t) {
+                Log.warn(LogCategory.CACHE, "Unable to transform " + className + ", the classes extending it may be baked without its mixins", t);
+            }
+        }
+
+        Files.createDirectories(path.getParent());
+        Path tmp = Files.createTempFile(path.getParent(), DEFAULT_FILE, ".tmp");
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(tmp))) {
+            for (Path jarPath : serverClassPath) {
+                if (Files.isDirectory(jarPath)) continue;
+
+                try (JarFile jar = new JarFile(jarPath.toFile(), false)) {
+                    for (JarEntry entry : Collections.list(jar.entries())) {
+                        String name = entry.getName();
+                        if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.endsWith("module-info.class")) continue;
+
+                        String className = name.substring(0, name.length() - ".class".length());
+                        if (!seen.add(className) || !targetIndex.isTarget(className) || targetIndex.isSupertypeTarget(className)) continue;
+
+                        byte[] input;
+                        try (InputStream is = jar.getInputStream(entry)) {
+                            input = is.readAllBytes();
+                        }
+
+                        byte[] output;
+                        try {
+                            output = CoproliteTransformer.transform(className, input,
+                                    gameTransformer != null ? gameTransformer::transform : null, new TransformTimings());
+                        } catch (Throwable t) {
+                            Log.warn(LogCategory.CACHE, "Unable to bake " + className + ", it will be transformed at runtime", t);
+                            failed++;
+                            continue;
+                        }
+
+                        boolean classChanged = output != null && !Arrays.equals(input, output);
+                        if (classChanged) {
+                            writeStored(out, name, output);
+                            changed++;
+                        }
+
+                        JsonObject baked = new JsonObject();
+                        baked.addProperty("input", HexFormat.of().formatHex(hash(input)));
+                        baked.addProperty("changed", classChanged);
+                        classes.add(className, baked);
+                    }
+                }
+            }
+
+            JsonObject manifest = new JsonObject();
+            manifest.addProperty("format", FORMAT_VERSION);
+            manifest.addProperty("fingerprint", fingerprint);
+            manifest.add("classes", classes);
+            writeStored(out, MANIFEST, manifest.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Log.info(LogCategory.CACHE, "Baked %d class%s (%d changed, %d failed) to %s in %.1f s", classes.size(), classes.size() != 1 ? "es" : "",
+                changed, failed, path, (System.nanoTime() - start) * 1e-9);
+    }
+
+    /**
+     * @return the code sources of the server and its libraries, without the launcher and the plugins
+     */
+    static @NotNull List<Path> getServerClassPath(@NotNull CoproliteLoaderImpl loader, @NotNull Collection<Path> classPath,
+                                                  @NotNull Collection<Path> launcherClassPath) {
+        Set<Path> excluded = new HashSet<>(launcherClassPath);
+
+        for (PluginContainerImpl plugin : loader.getPluginsInternal()) {
+            excluded.addAll(plugin.getRootPaths());
+        }
+
+        List<Path> ret = new ArrayList<>();
+
+        for (Path path : classPath) {
+            if (!excluded.contains(path)) ret.add(path);
+        }
+
+        return ret;
+    }
+
+    private static void writeStored(JarOutputStream out, String name, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc.getValue());
+
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+    }
+
+    private static byte[] hash(byte[] data) {
+        return DIGEST.get().digest(data);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record BakedClass(byte[] inputHash, boolean changed) { }
+}
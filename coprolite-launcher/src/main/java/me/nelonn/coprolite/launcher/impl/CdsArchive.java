@@ -0,0 +1,195 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.launcher.impl;
+
+import me.nelonn.coprolite.loader.impl.LoaderUtil;
+import me.nelonn.coprolite.loader.impl.SystemProperties;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Dynamic AppCDS archive of the launcher and its libraries.
+ *
+ * <p>Archive options only take effect at JVM startup, so in CDS mode ({@code -Dcoprolite.cds=true}) the launcher
+ * starts the server in a child JVM with {@code -XX:+AutoCreateSharedArchive}. The first launch is the training run:
+ * the JVM records the classes loaded from the launcher jar and dumps them into the archive when the server stops.
+ * Classes changed by the transformer and classes of jars appended at runtime are not archived by the JVM, which
+ * leaves exactly the launcher, loader and library classes. Later launches map the archive instead of loading these
+ * classes one by one.
+ *
+ * <p>The archive is named after the launcher jar, so it is recreated whenever the launcher changes, and the JVM
+ * recreates it as well if it doesn't match the JVM version.
+ *
+ * <p>The parent JVM waits for the child, started with the same options. If those commit the heap up front
+ * ({@code -Xms}, {@code -XX:+AlwaysPreTouch} or large pages), the parent would hold a second server-sized heap, so
+ * the launcher doesn't relaunch and logs the options to add to the start script instead.
+ */
+public final class CdsArchive {
+    private static final String ARCHIVE_OPTION = "-XX:SharedArchiveFile=";
+    private static final String AUTO_CREATE_OPTION = "-XX:+AutoCreateSharedArchive";
+    private static final String[] COMMITTED_HEAP_OPTIONS = { "-Xms", "-XX:InitialHeapSize=", "-XX:+AlwaysPreTouch", "-XX:+UseLargePages",
+            "-XX:+UseTransparentHugePages" };
+
+    /**
+     * Starts the launcher again in a child JVM using the archive and exits once it terminates.
+     *
+     * @param args the launcher arguments
+     * @return false if CDS mode is disabled or not applicable, the caller continues launching in this JVM
+     */
+    public static boolean relaunch(@NotNull String[] args) {
+        if (!Boolean.getBoolean(SystemProperties.CDS)) return false;
+
+        List<String> jvmArgs = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        for (String arg : jvmArgs) {
+            if (arg.startsWith(ARCHIVE_OPTION) || arg.startsWith("-Xshare")) return false; // child or configured by the user
+        }
+
+        Path launcherJar = getLauncherJar();
+        if (launcherJar == null || !LoaderUtil.normalizePath(Paths.get(System.getProperty("java.class.path"))).equals(LoaderUtil.normalizePath(launcherJar))) {
+            Log.warn(LogCategory.LAUNCHER, "CDS mode requires launching with -jar, continuing without it");
+            return false;
+        }
+
+        Path archive;
+        try {
+            archive = getArchive(launcherJar);
+        } catch (IOException e) {
+            Log.warn(LogCategory.LAUNCHER, "Unable to set up the CDS archive, continuing without it", e);
+            return false;
+        }
+
+        String committedHeapOption = findCommittedHeapOption(jvmArgs);
+        if (committedHeapOption != null) {
+            Log.warn(LogCategory.LAUNCHER, "CDS mode would keep a second committed heap alive in this JVM because of %s, "
+                    + "add \"%s%s %s\" to the java options of the start script instead, continuing without CDS", committedHeapOption, ARCHIVE_OPTION, archive, AUTO_CREATE_OPTION);
+            return false;
+        }
+
+        Log.finishBuiltinConfig(); // the log of this JVM must not replace the child's log file
+
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add(ARCHIVE_OPTION + archive);
+        command.add(AUTO_CREATE_OPTION);
+        command.addAll(jvmArgs);
+        command.add("-jar");
+        command.add(launcherJar.toString());
+        command.addAll(Arrays.asList(args));
+
+        Log.info(LogCategory.LAUNCHER, Files.exists(archive) ? "Starting with CDS archive %s" : "Starting CDS training run, the archive %s is written when the server stops", archive);
+
+        try {
+            Process process = new ProcessBuilder(command).inheritIO().start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                process.destroy();
+                try {
+                    process.waitFor();
+                } catch (InterruptedException ignored) {
+                }
+            }, "Coprolite CDS child shutdown"));
+
+            System.exit(process.waitFor());
+        } catch (IOException e) {
+            Log.warn(LogCategory.LAUNCHER, "Unable to start the JVM with the CDS archive, continuing without it", e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the first option making the JVM commit its heap up front, null if there is none
+     */
+    private static @Nullable String findCommittedHeapOption(List<String> jvmArgs) {
+        for (String arg : jvmArgs) {
+            for (String option : COMMITTED_HEAP_OPTIONS) {
+                if (arg.startsWith(option)) return arg;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the archive for the launcher jar, archives of other launcher jars are deleted
+     */
+    private static Path getArchive(Path launcherJar) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(launcherJar, BasicFileAttributes.class);
+        String key = launcherJar + File.pathSeparator + attributes.size() + File.pathSeparator + attributes.lastModifiedTime().toMillis();
+
+        Path directory = TransformCache.getCacheDirectory().resolve("cds");
+        Path archive = directory.resolve("launcher-" + hash(key) + ".jsa");
+        Files.createDirectories(directory);
+
+        try (Stream<Path> stream = Files.list(directory)) {
+            for (Path stale : (Iterable<Path>) stream::iterator) {
+                if (!stale.equals(archive) && stale.getFileName().toString().endsWith(".jsa")) {
+                    Files.delete(stale);
+                }
+            }
+        }
+
+        return archive;
+    }
+
+    private static @Nullable Path getLauncherJar() {
+        CodeSource codeSource = CdsArchive.class.getProtectionDomain().getCodeSource();
+        if (codeSource == null) return null;
+
+        try {
+            Path path = Paths.get(codeSource.getLocation().toURI());
+            return Files.isRegularFile(path) ? path : null;
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private CdsArchive() {
+    }
+}
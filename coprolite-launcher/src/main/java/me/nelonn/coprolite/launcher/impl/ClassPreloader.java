@@ -0,0 +1,182 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.launcher.impl;
+
+import me.nelonn.coprolite.loader.impl.SystemProperties;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the classes of the previous startup ahead of the server on a few worker threads.
+ *
+ * <p>Every class defined by the target class loader is recorded in order. Once the server has started and no new
+ * class was defined for a few seconds, the list is written to the cache directory together with the fingerprint of
+ * the transformation inputs. The next launch with the same fingerprint loads the listed classes in parallel while
+ * the server is starting, so the expensive part of class loading, reading and transforming, is mostly done by the
+ * time the server needs a class. Classes are loaded without being initialized, initialization order is left to the
+ * server.
+ */
+public final class ClassPreloader {
+    public static final String FILE = "preload.txt";
+    private static final String HEADER = "# ";
+    private static final long QUIET_MILLIS = 5000;
+    private static final long MAX_RECORD_MILLIS = 5 * 60 * 1000;
+
+    private final ClassLoader loader;
+    private final String fingerprint;
+    private final Path file;
+    private final Queue<String> recorded = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger recordedCount = new AtomicInteger();
+    private volatile boolean recording = true;
+
+    private ClassPreloader(ClassLoader loader, String fingerprint, Path file) {
+        this.loader = loader;
+        this.fingerprint = fingerprint;
+        this.file = file;
+    }
+
+    /**
+     * @param loader the class loader to record and preload classes of
+     * @param fingerprint fingerprint of the inputs, see {@link TransformCache#fingerprint}
+     * @return the preloader or null if disabled
+     */
+    public static @Nullable ClassPreloader create(@NotNull ClassLoader loader, @NotNull String fingerprint) {
+        if (!Boolean.getBoolean(SystemProperties.PRELOAD)) return null;
+
+        return new ClassPreloader(loader, fingerprint, TransformCache.getCacheDirectory().resolve(FILE));
+    }
+
+    /**
+     * Records a class defined by a class loader, classes of other class loaders are ignored.
+     *
+     * @param loader the defining class loader
+     * @param className internal name of the class
+     */
+    public void record(@Nullable ClassLoader loader, @Nullable String className) {
+        if (!recording || loader != this.loader || className == null) return;
+
+        recorded.add(className.replace('/', '.'));
+        recordedCount.incrementAndGet();
+    }
+
+    /**
+     * Starts loading the classes recorded by the previous launch in the background, if it had the same inputs.
+     */
+    public void replay() {
+        List<String> classes;
+
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+
+            if (lines.isEmpty() || !lines.get(0).equals(HEADER + fingerprint)) {
+                Log.debug(LogCategory.LAUNCHER, "Preload list %s is outdated", file);
+                return;
+            }
+
+            classes = lines.subList(1, lines.size());
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            Log.warn(LogCategory.LAUNCHER, "Unable to read preload list " + file, e);
+            return;
+        }
+
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger(threads);
+        long start = System.nanoTime();
+
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < classes.size(); i = next.getAndIncrement()) {
+                try {
+                    Class.forName(classes.get(i), false, loader);
+                } catch (Throwable t) {
+                    failed.incrementAndGet();
+                }
+            }
+
+            if (running.decrementAndGet() == 0) {
+                Log.debug(LogCategory.LAUNCHER, "Preloaded %d class%s on %d thread%s in %.1f ms (%d failed)", classes.size(), classes.size() != 1 ? "es" : "",
+                        threads, threads != 1 ? "s" : "", (System.nanoTime() - start) * 1e-6, failed.get());
+            }
+        };
+
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(worker, "Coprolite preloader #" + i);
+            thread.setDaemon(true);
+            thread.setContextClassLoader(loader);
+            thread.start();
+        }
+    }
+
+    /**
+     * Writes the recorded classes once class loading settled down, called when the server has started.
+     */
+    public void save() {
+        Thread thread = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            int count = recordedCount.get();
+
+            try {
+                do {
+                    Thread.sleep(QUIET_MILLIS);
+                    int previous = count;
+                    count = recordedCount.get();
+                    if (count == previous) break;
+                } while (System.currentTimeMillis() - start < MAX_RECORD_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            recording = false;
+            write();
+        }, "Coprolite preload recorder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void write() {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER + fingerprint);
+        lines.addAll(recorded);
+
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), FILE, ".tmp");
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Log.debug(LogCategory.LAUNCHER, "Recorded %d class%s to preload", lines.size() - 1, lines.size() != 2 ? "es" : "");
+        } catch (IOException e) {
+            Log.warn(LogCategory.LAUNCHER, "Unable to write preload list " + file, e);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.launcher.impl;
+
+import me.nelonn.coprolite.loader.impl.CoproliteTransformer;
+import me.nelonn.coprolite.loader.impl.LoaderUtil;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.SecureClassLoader;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Parallel capable class loader for the server, its libraries and the plugins.
+ *
+ * <p>Classes are looked up child-first in the code sources, falling back to the parent which serves the launcher and
+ * the JDK. Code sources that are already on the parent's class path are skipped. Lookups go through the
+ * {@link SimpleClassPath} index, the first code source providing an entry wins unless its allowed prefixes exclude
+ * the entry. Classes are run through the transformation pipeline before they are defined.
+ */
+public final class CoproliteClassLoader extends SecureClassLoader implements CoproliteClassLoaderInterface {
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final Launcher launcher;
+    private final Set<Path> codeSources = new LinkedHashSet<>(); // guarded by itself
+    private final Set<Path> parentClassPath = ConcurrentHashMap.newKeySet();
+    private final Map<Path, String[]> allowedPrefixes = new ConcurrentHashMap<>();
+    private final Map<Path, ProtectionDomain> protectionDomains = new ConcurrentHashMap<>();
+    private final Map<Path, Optional<Manifest>> manifests = new ConcurrentHashMap<>();
+    private final Map<String, Path> packageSources = new ConcurrentHashMap<>();
+    private volatile SimpleClassPath classPath;
+    private volatile boolean transformersReady;
+
+    public CoproliteClassLoader(@NotNull Launcher launcher, @NotNull ClassLoader parent) {
+        super("coprolite", parent);
+        this.launcher = launcher;
+    }
+
+    @Override
+    public void initializeTransformers() {
+        transformersReady = true;
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return this;
+    }
+
+    @Override
+    public void addCodeSource(Path path) {
+        path = LoaderUtil.normalizePath(path);
+        if (parentClassPath.contains(path)) return;
+
+        synchronized (codeSources) {
+            if (codeSources.add(path) && classPath != null) {
+                classPath.add(path);
+            }
+        }
+    }
+
+    @Override
+    public void setAllowedPrefixes(Path codeSource, String... prefixes) {
+        codeSource = LoaderUtil.normalizePath(codeSource);
+
+        if (prefixes.length == 0) {
+            allowedPrefixes.remove(codeSource);
+        } else {
+            allowedPrefixes.put(codeSource, prefixes);
+        }
+    }
+
+    /**
+     * Sets the code sources the parent class loader serves already, they are ignored by {@link #addCodeSource}.
+     */
+    @Override
+    public void setValidParentClassPath(Collection<Path> codeSources) {
+        parentClassPath.clear();
+
+        for (Path path : codeSources) {
+            parentClassPath.add(LoaderUtil.normalizePath(path));
+        }
+    }
+
+    @Override
+    public Manifest getManifest(Path codeSource) {
+        return manifests.computeIfAbsent(LoaderUtil.normalizePath(codeSource), path -> Optional.ofNullable(readManifest(path))).orElse(null);
+    }
+
+    @Override
+    public boolean isClassLoaded(String name) {
+        synchronized (getClassLoadingLock(name)) {
+            return findLoadedClass(name) != null;
+        }
+    }
+
+    @Override
+    public Class<?> loadIntoTarget(String name) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+
+            if (c == null) {
+                c = tryLoadClass(name);
+                if (c == null) throw new ClassNotFoundException("can't find class " + name);
+            }
+
+            resolveClass(c);
+            return c;
+        }
+    }
+
+    @Override
+    public byte[] getRawClassBytes(String name) throws IOException {
+        SimpleClassPath.CpEntry entry = findEntry(LoaderUtil.getClassFileName(name));
+        return entry != null ? entry.getBytes() : null;
+    }
+
+    @Override
+    public byte[] getPreMixinClassBytes(String name) {
+        GameTransformer transformer = launcher.getProvider().getTransformer();
+        byte[] bytes = transformer != null ? transformer.transform(name) : null;
+
+        if (bytes == null) {
+            try {
+                bytes = getRawClassBytes(name);
+            } catch (IOException e) {
+                throw ExceptionUtil.wrap(e);
+            }
+        }
+
+        return bytes != null ? CoproliteTransformer.relocate(bytes) : null;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+
+            if (c == null) {
+                if (!name.startsWith("java.")) c = tryLoadClass(name);
+                if (c == null) c = getParent().loadClass(name);
+            }
+
+            if (resolve) resolveClass(c);
+            return c;
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        Class<?> c = tryLoadClass(name);
+        if (c == null) throw new ClassNotFoundException(name);
+        return c;
+    }
+
+    @Override
+    public URL getResource(String name) {
+        URL url = findResource(name);
+        return url != null ? url : getParent().getResource(name);
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        try {
+            SimpleClassPath.CpEntry entry = findEntry(name);
+            if (entry != null) return entry.getInputStream();
+        } catch (IOException e) {
+            Log.debug(LogCategory.LAUNCHER, "Unable to read resource " + name, e);
+        }
+
+        return getParent().getResourceAsStream(name);
+    }
+
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+        List<URL> ret = Collections.list(findResources(name));
+        ret.addAll(Collections.list(getParent().getResources(name)));
+        return Collections.enumeration(ret);
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        try {
+            SimpleClassPath.CpEntry entry = findEntry(name);
+            return entry != null ? entry.getUrl() : null;
+        } catch (IOException e) {
+            Log.debug(LogCategory.LAUNCHER, "Unable to find resource " + name, e);
+            return null;
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) throws IOException {
+        List<URL> ret = new ArrayList<>();
+
+        for (SimpleClassPath.CpEntry entry : getClassPath().getEntries(name)) {
+            if (isAllowed(entry)) ret.add(entry.getUrl());
+        }
+
+        return Collections.enumeration(ret);
+    }
+
+    /**
+     * @return the code source the package was first defined from, null if no class of it was loaded yet
+     */
+    public @Nullable Path getPackageSource(String packageName) {
+        return packageSources.get(packageName);
+    }
+
+    private Class<?> tryLoadClass(String name) throws ClassNotFoundException {
+        SimpleClassPath.CpEntry entry;
+        byte[] bytes;
+
+        try {
+            entry = findEntry(LoaderUtil.getClassFileName(name));
+            if (entry == null) return null;
+            bytes = entry.getBytes();
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+
+        Path origin = entry.getOrigin();
+        definePackage(name, origin);
+
+        ClassPreloader preloader = launcher.getPreloader();
+        if (preloader != null) {
+            preloader.record(this, name);
+        }
+
+        if (transformersReady) {
+            byte[] output = Transformer.transform(this, name.replace('.', '/'), bytes, false);
+            if (output != null) bytes = output;
+        }
+
+        return defineClass(name, bytes, 0, bytes.length, getProtectionDomain(origin));
+    }
+
+    private SimpleClassPath.CpEntry findEntry(String name) throws IOException {
+        SimpleClassPath cp = getClassPath();
+        SimpleClassPath.CpEntry entry = cp.getEntry(name);
+        if (entry == null || isAllowed(entry)) return entry;
+
+        for (SimpleClassPath.CpEntry candidate : cp.getEntries(name)) {
+            if (isAllowed(candidate)) return candidate;
+        }
+
+        return null;
+    }
+
+    private boolean isAllowed(SimpleClassPath.CpEntry entry) {
+        String[] prefixes = allowedPrefixes.get(entry.getOrigin());
+        if (prefixes == null) return true;
+
+        for (String prefix : prefixes) {
+            if (entry.getSubPath().startsWith(prefix)) return true;
+        }
+
+        return false;
+    }
+
+    private SimpleClassPath getClassPath() {
+        SimpleClassPath ret = classPath;
+
+        if (ret == null) {
+            synchronized (codeSources) {
+                ret = classPath;
+                if (ret == null) classPath = ret = new SimpleClassPath(List.copyOf(codeSources));
+            }
+        }
+
+        return ret;
+    }
+
+    private void definePackage(String className, Path origin) {
+        int pos = className.lastIndexOf('.');
+        if (pos < 0) return;
+
+        String name = className.substring(0, pos);
+        if (packageSources.putIfAbsent(name, origin) != null || getDefinedPackage(name) != null) return;
+
+        try {
+            Manifest manifest = getManifest(origin);
+
+            if (manifest != null) {
+                // Same lookup as URLClassLoader, the package section takes precedence over the main attributes
+                Attributes section = manifest.getAttributes(name.replace('.', '/') + '/');
+                Attributes main = manifest.getMainAttributes();
+                URL sealBase = "true".equalsIgnoreCase(getAttribute(Attributes.Name.SEALED, section, main)) ? origin.toUri().toURL() : null;
+
+                definePackage(name,
+                        getAttribute(Attributes.Name.SPECIFICATION_TITLE, section, main),
+                        getAttribute(Attributes.Name.SPECIFICATION_VERSION, section, main),
+                        getAttribute(Attributes.Name.SPECIFICATION_VENDOR, section, main),
+                        getAttribute(Attributes.Name.IMPLEMENTATION_TITLE, section, main),
+                        getAttribute(Attributes.Name.IMPLEMENTATION_VERSION, section, main),
+                        getAttribute(Attributes.Name.IMPLEMENTATION_VENDOR, section, main),
+                        sealBase);
+            } else {
+                definePackage(name, null, null, null, null, null, null, null);
+            }
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalArgumentException e) {
+            // defined concurrently
+        }
+    }
+
+    private static String getAttribute(Attributes.Name name, @Nullable Attributes section, Attributes main) {
+        String value = section != null ? section.getValue(name) : null;
+        return value != null ? value : main.getValue(name);
+    }
+
+    private ProtectionDomain getProtectionDomain(Path origin) {
+        return protectionDomains.computeIfAbsent(origin, path -> {
+            try {
+                return new ProtectionDomain(new CodeSource(path.toUri().toURL(), (CodeSigner[]) null), null, this, null);
+            } catch (MalformedURLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static Manifest readManifest(Path path) {
+        try {
+            if (Files.isDirectory(path)) {
+                Path file = path.resolve(JarFile.MANIFEST_NAME);
+                if (!Files.exists(file)) return null;
+
+                try (InputStream is = Files.newInputStream(file)) {
+                    return new Manifest(is);
+                }
+            }
+
+            try (JarFile jar = new JarFile(path.toFile(), false)) {
+                return jar.getManifest();
+            }
+        } catch (IOException e) {
+            Log.debug(LogCategory.LAUNCHER, "Unable to read manifest of " + path, e);
+            return null;
+        }
+    }
+}
@@ -26,12 +26,13 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.zip.ZipError;
 
@@ -75,8 +76,8 @@ public class GameTransformer {
 					SimpleClassPath.CpEntry entry = cp.getEntry(LoaderUtil.getClassFileName(name));
 					if (entry == null) return null;
 
-					try (InputStream is = entry.getInputStream()) {
-						return new ClassReader(is);
+					try {
+						return new ClassReader(entry.getBytes());
 					} catch (IOException | ZipError e) {
 						throw new RuntimeException(String.format("error reading %s in %s: %s", name, LoaderUtil.normalizePath(entry.getOrigin()), e), e);
 					}
@@ -96,6 +97,13 @@ public class GameTransformer {
 		entrypointsLocated = true;
 	}
 
+	/**
+	 * @return binary names of all patched classes, empty until the entrypoints are located
+	 */
+	public Set<String> getPatchedClasses() {
+		return patchedClasses != null ? Collections.unmodifiableSet(patchedClasses.keySet()) : Collections.emptySet();
+	}
+
 	/**
 	 * This must run first, contractually!
 	 * @param className The class name,
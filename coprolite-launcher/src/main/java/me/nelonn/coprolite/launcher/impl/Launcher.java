@@ -23,10 +23,14 @@ import me.nelonn.coprolite.loader.api.CoproliteLauncher;
 import me.nelonn.coprolite.loader.impl.CoproliteLoaderImpl;
 import me.nelonn.coprolite.loader.impl.CoproliteMixinBootstrap;
 import me.nelonn.coprolite.loader.impl.LoaderUtil;
+import me.nelonn.coprolite.loader.impl.StartupTimings;
 import me.nelonn.coprolite.loader.impl.SystemProperties;
+import me.nelonn.coprolite.loader.impl.TransformTargetIndex;
+import me.nelonn.coprolite.loader.impl.TransformTimings;
 import me.nelonn.coprolite.loader.impl.log.Log;
 import me.nelonn.coprolite.loader.impl.log.LogCategory;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.spongepowered.asm.util.asm.ASM;
 
 import java.io.File;
@@ -43,13 +47,25 @@ import java.util.stream.Collectors;
 public class Launcher implements CoproliteLauncher {
     public static final String DEFAULT_SERVER = PaperclipServerProvider.NAME;
     private final List<Path> classPath = new ArrayList<>();
+    private final Set<Path> codeSources = Collections.synchronizedSet(new LinkedHashSet<>());
     private IServerProvider provider;
+    private CoproliteClassLoaderInterface classLoader;
+    private TransformCache transformCache;
+    private BakedJar bakedJar;
+    private ClassPreloader preloader;
+    private long launchStart;
+    private long bootstrapEnd;
+    private TransformTargetIndex targetIndex = TransformTargetIndex.unbounded();
+    private volatile SimpleClassPath classPathIndex;
 
     public static void main(String[] args) {
+        if (CdsArchive.relaunch(args)) return;
         new Launcher().launch(args);
     }
 
     public void launch(final @NotNull String[] args) {
+        launchStart = System.nanoTime();
+
         // In FabricMC, each library is stored separately in its jar and, respectively, has its own manifest.
         // Coprolite launcher is delivered as a single file, respectively, libraries do not have their own manifest,
         // the ASM class is completely dependent on the ASM library manifest,
@@ -95,11 +111,18 @@ public class Launcher implements CoproliteLauncher {
             classPath.add(LoaderUtil.normalizeExistingPath(path));
         }
 
-        // temp
+        if (Boolean.getBoolean(SystemProperties.CLASS_LOADER)) {
+            classLoader = new CoproliteClassLoader(this, Launcher.class.getClassLoader());
+            classLoader.setValidParentClassPath(classPath);
+        }
+
+        // Recorded as code sources for the class path index and the transform cache, they are never appended twice
         for (Path path : classPath) {
             addToClassPath(path);
         }
 
+        long time = StartupTimings.record(StartupTimings.CLASSPATH, launchStart);
+
         if (unsupported != null) Log.warn(LogCategory.LAUNCHER, "Knot does not support wildcard class path entries: %s - the game may not load properly!", String.join(", ", unsupported));
         if (missing != null) Log.warn(LogCategory.LAUNCHER, "Class path entries reference missing files: %s - the game may not load properly!", String.join(", ", missing));
 
@@ -109,6 +132,7 @@ public class Launcher implements CoproliteLauncher {
         } catch (final Throwable throwable) {
             throw new RuntimeException("Unable to load server provider", throwable);
         }
+        time = StartupTimings.record(StartupTimings.PROVIDER_LOAD, time);
         Log.finishBuiltinConfig();
 
         //classLoader = KnotClassLoaderInterface.create(useCompatibility, isDevelopment(), envType, provider);
@@ -117,11 +141,52 @@ public class Launcher implements CoproliteLauncher {
         CoproliteLoaderImpl loader = CoproliteLoaderImpl.INSTANCE;
         loader.load();
         loader.freeze();
+        time = System.nanoTime();
 
         loader.loadAccessWideners();
+        time = StartupTimings.record(StartupTimings.ACCESS_WIDENERS, time);
 
         CoproliteMixinBootstrap.init(loader);
+        time = StartupTimings.record(StartupTimings.MIXIN_INIT, time);
+
+        GameTransformer gameTransformer = provider.getTransformer();
+        targetIndex = TransformTargetIndex.build(loader, gameTransformer != null ? gameTransformer.getPatchedClasses() : Collections.emptySet());
+        boolean bake = Boolean.getBoolean(SystemProperties.BAKE);
+        String fingerprint = computeFingerprint(loader);
+        if (fingerprint != null && !bake) {
+            // a cache or baked hit skips Mixin, so config plugins' hooks and Mixin's class bookkeeping wouldn't run
+            if (targetIndex.mayUseConfigPlugins()) {
+                Log.info(LogCategory.CACHE, "Mixin config plugins are in use, the transform cache and baked classes are disabled");
+            } else {
+                bakedJar = BakedJar.open(fingerprint);
+                transformCache = TransformCache.create(fingerprint);
+            }
+
+            preloader = ClassPreloader.create(getTargetClassLoader(), fingerprint);
+        }
+        time = StartupTimings.record(StartupTimings.TRANSFORM_SETUP, time);
+
         CoproliteMixinBootstrap.finishMixinBootstrapping();
+        if (classLoader != null) {
+            classLoader.initializeTransformers();
+        }
+        bootstrapEnd = StartupTimings.record(StartupTimings.MIXIN_FINISH, time);
+
+        if (bake) {
+            if (fingerprint == null) throw new IllegalStateException("Unable to bake server classes without a fingerprint of the inputs");
+            if (targetIndex.mayUseConfigPlugins()) throw new IllegalStateException("Unable to bake server classes while mixin config plugins are in use");
+
+            try {
+                BakedJar.bake(this, fingerprint, BakedJar.getServerClassPath(loader, List.copyOf(codeSources), classPath));
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to bake server classes", e);
+            }
+            return;
+        }
+
+        if (preloader != null) {
+            preloader.replay();
+        }
 
         try {
             provider.execute(args);
@@ -131,6 +196,15 @@ public class Launcher implements CoproliteLauncher {
 
     }
 
+    private @Nullable String computeFingerprint(CoproliteLoaderImpl loader) {
+        try {
+            return TransformCache.fingerprint(loader, List.copyOf(codeSources));
+        } catch (IOException e) {
+            Log.warn(LogCategory.CACHE, "Unable to fingerprint the transformation inputs, caches are disabled", e);
+            return null;
+        }
+    }
+
     @NotNull
     private IServerProvider createServerProvider() {
         final ServiceLoader<IServerProvider> serviceLoader = ServiceLoader.load(IServerProvider.class,
@@ -157,17 +231,33 @@ public class Launcher implements CoproliteLauncher {
     public void addToClassPath(Path path, String... allowedPrefixes) {
         Log.debug(LogCategory.LAUNCHER, "Adding " + path + " to classpath.");
 
+        synchronized (codeSources) {
+            if (!codeSources.add(path)) return;
+            if (classPathIndex != null) classPathIndex.add(path);
+        }
+
+        if (classLoader != null) {
+            classLoader.setAllowedPrefixes(path, allowedPrefixes);
+            classLoader.addCodeSource(path);
+            return;
+        }
+
+        // Entries of java.class.path are already searched by the system class loader
+        if (classPath.contains(path)) return;
+
         try {
             CoproliteAgent.addJar(path);
         } catch (Exception e) {
             Log.error(LogCategory.LAUNCHER, "Unable to add " + path + " to claspath", e);
         }
-        //classLoader.setAllowedPrefixes(path, allowedPrefixes);
-        //classLoader.addCodeSource(path);
     }
 
     @Override
     public boolean isClassLoaded(String name) {
+        if (classLoader != null) {
+            return classLoader.isClassLoaded(name);
+        }
+
         try {
             Class.forName(name);
             return true;
@@ -178,25 +268,101 @@ public class Launcher implements CoproliteLauncher {
 
     @Override
     public InputStream getResourceAsStream(String name) {
+        if (classLoader != null) {
+            return classLoader.getClassLoader().getResourceAsStream(name);
+        }
+
+        try {
+            InputStream is = getClassPathIndex().getInputStream(name);
+            if (is != null) return is;
+        } catch (IOException e) {
+            Log.debug(LogCategory.LAUNCHER, "Unable to look up " + name + " in the class path index", e);
+        }
+
         return ClassLoader.getSystemResourceAsStream(name);
     }
 
     @Override
     public ClassLoader getTargetClassLoader() {
-        return Launcher.class.getClassLoader();
+        return classLoader != null ? classLoader.getClassLoader() : Launcher.class.getClassLoader();
     }
 
     public byte[] getRawClassBytes(String name) throws IOException {
-        try (InputStream is = getResourceAsStream(LoaderUtil.getClassFileName(name))) {
+        byte[] bytes = classLoader != null ? classLoader.getRawClassBytes(name) : getClassPathIndex().getBytes(LoaderUtil.getClassFileName(name));
+        if (bytes != null) return bytes;
+
+        // JDK classes aren't part of the class path
+        try (InputStream is = ClassLoader.getSystemResourceAsStream(LoaderUtil.getClassFileName(name))) {
             if (is == null) throw new FileNotFoundException("Class not found: " + name);
             return ByteStreams.toByteArray(is);
         }
     }
 
+    /**
+     * The code sources in the same order as the system class loader searches them, extended by each addition.
+     */
+    private @NotNull SimpleClassPath getClassPathIndex() {
+        SimpleClassPath ret = classPathIndex;
+
+        if (ret == null) {
+            synchronized (codeSources) {
+                ret = classPathIndex;
+                if (ret == null) classPathIndex = ret = new SimpleClassPath(List.copyOf(codeSources));
+            }
+        }
+
+        return ret;
+    }
+
     public IServerProvider getProvider() {
         return provider;
     }
 
+    public @NotNull TransformTargetIndex getTargetIndex() {
+        return targetIndex;
+    }
+
+    public @Nullable TransformCache getTransformCache() {
+        return transformCache;
+    }
+
+    public @Nullable BakedJar getBakedJar() {
+        return bakedJar;
+    }
+
+    public @Nullable ClassPreloader getPreloader() {
+        return preloader;
+    }
+
+    /**
+     * Called by the server provider right before it invokes the server main method, reports the startup timings.
+     */
+    public void onServerMainStarting() {
+        long now = System.nanoTime();
+        StartupTimings.add(StartupTimings.SERVER_MAIN, now - bootstrapEnd);
+        StartupTimings.add(StartupTimings.TOTAL, now - launchStart);
+
+        String report = System.getProperty(SystemProperties.STARTUP_REPORT);
+        Path file = report == null ? TransformCache.getCacheDirectory().resolve("startup.json") : report.isEmpty() ? null : LoaderUtil.normalizePath(Paths.get(report));
+        StartupTimings.report(file);
+    }
+
+    /**
+     * Called by the server provider once the server main method has returned.
+     */
+    public void onServerStarted() {
+        TransformTimings.logSummary();
+        if (preloader != null) {
+            preloader.save();
+        }
+        if (bakedJar != null) {
+            bakedJar.logStats();
+        }
+        if (transformCache != null) {
+            transformCache.logStats();
+        }
+    }
+
     @Override
     public byte[] getClassByteArray(String name, boolean runTransformers) throws IOException {
         if (runTransformers) {
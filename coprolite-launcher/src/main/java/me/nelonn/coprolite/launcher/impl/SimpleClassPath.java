@@ -17,37 +17,79 @@
 package me.nelonn.coprolite.launcher.impl;
 
 import me.nelonn.coprolite.loader.impl.LoaderUtil;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipError;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
+/**
+ * Class path lookup over a list of jars and directories, the first path containing an entry wins.
+ *
+ * <p>Jars are memory-mapped and their central directories parsed once on the first lookup into a single table from
+ * entry name to its location, so a lookup costs one hash probe instead of one probe per jar. Jars that can't be
+ * mapped (zip64 or larger than 2 GiB) and directories are still probed in order, but only those ahead of the indexed
+ * hit. Paths appended by {@link #add} are indexed on their own, the other jars are not parsed again.
+ *
+ * <p>Multi-Release jars resolve an entry to its newest version under {@code META-INF/versions/} that the running
+ * Java supports, like {@link JarFile} does. Instances are safe for concurrent lookups and additions.
+ */
 public final class SimpleClassPath implements Closeable {
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_HEADER = 0x06054b50;
+	private static final int END_LENGTH = 22;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+	private static final String VERSIONS = "META-INF/versions/";
+	private static final int RUNTIME_VERSION = Runtime.version().feature();
+
 	public SimpleClassPath(List<Path> paths) {
-		this.paths = paths;
-		this.jarMarkers = new boolean[paths.size()];
-		this.openJars = new ZipFile[paths.size()];
+		boolean[] jarMarkers = new boolean[paths.size()];
 
 		for (int i = 0; i < jarMarkers.length; i++) {
 			if (!Files.isDirectory(paths.get(i))) {
 				jarMarkers[i] = true;
 			}
 		}
+
+		this.state = new State(List.copyOf(paths), jarMarkers);
 	}
 
 	@Override
-	public void close() throws IOException {
+	public synchronized void close() throws IOException {
+		State state = this.state;
 		IOException exc = null;
 
-		for (int i = 0; i < openJars.length; i++) {
-			Closeable file = openJars[i];
-
+		for (Closeable file : state.openJars) {
 			try {
 				if (file != null) file.close();
 			} catch (IOException e) {
@@ -57,39 +99,66 @@ public final class SimpleClassPath implements Closeable {
 					exc.addSuppressed(e);
 				}
 			}
-
-			openJars[i] = null;
 		}
 
+		this.state = new State(state.paths, state.jarMarkers); // mappings are unmapped once collected
+
 		if (exc != null) throw exc;
 	}
 
+	/**
+	 * Appends a path to the class path, indexing only the new path if the others are indexed already.
+	 */
+	public synchronized void add(Path path) {
+		State state = this.state;
+		int idx = state.paths.size();
+		List<Path> paths = new ArrayList<>(idx + 1);
+		paths.addAll(state.paths);
+		paths.add(path);
+		boolean[] jarMarkers = Arrays.copyOf(state.jarMarkers, idx + 1);
+		jarMarkers[idx] = !Files.isDirectory(path);
+
+		State next = new State(List.copyOf(paths), jarMarkers, Arrays.copyOf(state.openJars, idx + 1), Arrays.copyOf(state.mappedJars, idx + 1),
+				state.index, state.unindexed);
+
+		if (state.index == null) { // indexed along with the others on the first lookup
+			this.state = next;
+			return;
+		}
+
+		Map<String, IndexEntry> entries = jarMarkers[idx] ? indexJar(idx, next) : null;
+
+		if (entries == null) {
+			next.unindexed = Arrays.copyOf(state.unindexed, state.unindexed.length + 1);
+			next.unindexed[state.unindexed.length] = idx;
+		}
+
+		// published before its entries so a lookup never finds an entry of a path it doesn't know
+		this.state = next;
+		if (entries != null) merge(entries, next.index);
+	}
+
 	public List<Path> getPaths() {
-		return paths;
+		return state.paths;
 	}
 
 	public CpEntry getEntry(String subPath) throws IOException {
-		for (int i = 0; i < jarMarkers.length; i++) {
-			if (jarMarkers[i]) {
-				ZipFile zf = openJars[i];
+		State state = getIndexedState();
+		IndexEntry indexed = state.index.get(subPath);
+		int limit = indexed != null ? indexed.idx : state.paths.size();
 
-				if (zf == null) {
-					Path path = paths.get(i);
-
-					try {
-						openJars[i] = zf = new ZipFile(path.toFile());
-					} catch (IOException | ZipError e) {
-						throw new IOException(String.format("error opening %s: %s", LoaderUtil.normalizePath(path), e), e);
-					}
-				}
+		for (int i : state.unindexed) {
+			if (i >= limit) break;
 
+			if (state.jarMarkers[i]) {
+				ZipFile zf = openJar(i);
 				ZipEntry entry = zf.getEntry(subPath);
 
 				if (entry != null) {
 					return new CpEntry(i, subPath, entry);
 				}
 			} else {
-				Path file = paths.get(i).resolve(subPath);
+				Path file = state.paths.get(i).resolve(subPath);
 
 				if (Files.isRegularFile(file)) {
 					return new CpEntry(i, subPath, file);
@@ -97,7 +166,37 @@ public final class SimpleClassPath implements Closeable {
 			}
 		}
 
-		return null;
+		return indexed != null ? new CpEntry(indexed.idx, subPath, indexed) : null;
+	}
+
+	/**
+	 * @return every entry with the given name, in class path order
+	 */
+	public List<CpEntry> getEntries(String subPath) throws IOException {
+		State state = getIndexedState();
+		List<CpEntry> ret = new ArrayList<>();
+
+		for (IndexEntry entry = state.index.get(subPath); entry != null; entry = entry.next) {
+			ret.add(new CpEntry(entry.idx, subPath, entry));
+		}
+
+		for (int i : state.unindexed) {
+			CpEntry entry = null;
+
+			if (state.jarMarkers[i]) {
+				ZipEntry zipEntry = openJar(i).getEntry(subPath);
+				if (zipEntry != null) entry = new CpEntry(i, subPath, zipEntry);
+			} else {
+				Path file = state.paths.get(i).resolve(subPath);
+				if (Files.isRegularFile(file)) entry = new CpEntry(i, subPath, file);
+			}
+
+			if (entry != null) ret.add(entry);
+		}
+
+		if (state.unindexed.length > 0) ret.sort(Comparator.comparingInt(entry -> entry.idx));
+
+		return ret;
 	}
 
 	public InputStream getInputStream(String subPath) throws IOException {
@@ -106,6 +205,244 @@ public final class SimpleClassPath implements Closeable {
 		return entry != null ? entry.getInputStream() : null;
 	}
 
+	/**
+	 * @return the content of the entry or null if there is none
+	 */
+	public byte[] getBytes(String subPath) throws IOException {
+		CpEntry entry = getEntry(subPath);
+
+		return entry != null ? entry.getBytes() : null;
+	}
+
+	private State getIndexedState() {
+		State ret = state;
+		if (ret.index != null) return ret;
+
+		synchronized (this) {
+			if (state.index == null) buildIndex();
+			return state;
+		}
+	}
+
+	private void buildIndex() {
+		State state = new State(this.state.paths, this.state.jarMarkers, this.state.openJars, new ByteBuffer[this.state.paths.size()],
+				new ConcurrentHashMap<>(), null);
+		int[] unindexed = new int[state.paths.size()];
+		int unindexedCount = 0;
+
+		for (int i = 0; i < state.jarMarkers.length; i++) {
+			Map<String, IndexEntry> entries = state.jarMarkers[i] ? indexJar(i, state) : null;
+
+			if (entries != null) {
+				merge(entries, state.index);
+			} else {
+				unindexed[unindexedCount++] = i;
+			}
+		}
+
+		state.unindexed = Arrays.copyOf(unindexed, unindexedCount);
+		this.state = state;
+	}
+
+	/**
+	 * Maps the jar into {@code state} and reads its entries.
+	 *
+	 * @return the entries by name or null if the jar can't be indexed
+	 */
+	private static Map<String, IndexEntry> indexJar(int idx, State state) {
+		Path path = state.paths.get(idx);
+
+		try {
+			ByteBuffer buf = map(path);
+			Map<String, IndexEntry> entries = readCentralDirectory(idx, buf);
+			applyVersions(buf, entries);
+			state.mappedJars[idx] = buf;
+			return entries;
+		} catch (IOException e) {
+			Log.debug(LogCategory.LAUNCHER, "Unable to index %s, falling back to ZipFile: %s", LoaderUtil.normalizePath(path), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the entries of a jar behind those of the jars already in the index.
+	 */
+	private static void merge(Map<String, IndexEntry> entries, Map<String, IndexEntry> index) {
+		for (Map.Entry<String, IndexEntry> e : entries.entrySet()) {
+			IndexEntry entry = e.getValue();
+			IndexEntry first = index.putIfAbsent(e.getKey(), entry);
+
+			if (first != null) { // shadowed by an earlier jar, kept for getEntries
+				while (first.next != null) first = first.next;
+				first.next = entry;
+			}
+		}
+	}
+
+	private static ByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) throw new ZipException("too large to map");
+
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	private static Map<String, IndexEntry> readCentralDirectory(int idx, ByteBuffer buf) throws ZipException {
+		int size = buf.limit();
+		int end = -1;
+
+		for (int pos = size - END_LENGTH; pos >= Math.max(0, size - END_LENGTH - 0xFFFF); pos--) {
+			if (buf.getInt(pos) == END_HEADER) {
+				end = pos;
+				break;
+			}
+		}
+
+		if (end < 0) throw new ZipException("missing end of central directory");
+
+		int count = u16(buf, end + 10);
+		long offset = buf.getInt(end + 16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || offset == 0xFFFFFFFFL) throw new ZipException("zip64 is not supported");
+
+		Map<String, IndexEntry> ret = new HashMap<>(count * 4 / 3 + 1);
+		int pos = (int) offset;
+		byte[] name = new byte[256];
+
+		for (int n = 0; n < count; n++) {
+			if (pos + 46 > size || buf.getInt(pos) != CENTRAL_HEADER) throw new ZipException("invalid central directory entry at " + pos);
+
+			int method = u16(buf, pos + 10);
+			int compressedSize = buf.getInt(pos + 20);
+			int uncompressedSize = buf.getInt(pos + 24);
+			int nameLength = u16(buf, pos + 28);
+			int extraLength = u16(buf, pos + 30);
+			int commentLength = u16(buf, pos + 32);
+			long localOffset = buf.getInt(pos + 42) & 0xFFFFFFFFL;
+
+			if (compressedSize < 0 || uncompressedSize < 0 || localOffset >= size) throw new ZipException("invalid central directory entry at " + pos);
+			if (name.length < nameLength) name = new byte[nameLength];
+			buf.get(pos + 46, name, 0, nameLength);
+
+			if (nameLength > 0 && name[nameLength - 1] != '/') {
+				ret.putIfAbsent(new String(name, 0, nameLength, StandardCharsets.UTF_8), new IndexEntry(idx, (int) localOffset, compressedSize, uncompressedSize, method));
+			}
+
+			pos += 46 + nameLength + extraLength + commentLength;
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Resolves the entries of a Multi-Release jar to their newest version for the running Java, the versioned entries
+	 * stay available under their own names as well.
+	 */
+	private static void applyVersions(ByteBuffer buf, Map<String, IndexEntry> entries) throws IOException {
+		Map<String, Integer> versions = null;
+
+		for (Map.Entry<String, IndexEntry> e : entries.entrySet()) {
+			String name = e.getKey();
+			if (!name.startsWith(VERSIONS)) continue;
+
+			int sep = name.indexOf('/', VERSIONS.length());
+			if (sep < 0 || sep == name.length() - 1) continue;
+
+			int version;
+
+			try {
+				version = Integer.parseInt(name, VERSIONS.length(), sep, 10);
+			} catch (NumberFormatException ex) {
+				continue;
+			}
+
+			if (version < 9 || version > RUNTIME_VERSION) continue;
+			if (versions == null) versions = new HashMap<>();
+			versions.merge(name.substring(sep + 1), version, Math::max);
+		}
+
+		if (versions == null || !isMultiRelease(buf, entries.get(MANIFEST))) return;
+
+		for (Map.Entry<String, Integer> e : versions.entrySet()) {
+			// a copy, each name gets its own chain of shadowed entries
+			entries.put(e.getKey(), entries.get(VERSIONS + e.getValue() + "/" + e.getKey()).copy());
+		}
+	}
+
+	private static boolean isMultiRelease(ByteBuffer buf, IndexEntry manifest) throws IOException {
+		if (manifest == null) return false;
+
+		Manifest parsed = new Manifest(new ByteArrayInputStream(read(buf, manifest, MANIFEST)));
+		return Boolean.parseBoolean(parsed.getMainAttributes().getValue(Attributes.Name.MULTI_RELEASE));
+	}
+
+	private static byte[] read(ByteBuffer buf, IndexEntry entry, Object desc) throws IOException {
+		ByteBuffer data = getRawData(buf, entry, desc);
+		byte[] ret = new byte[entry.size];
+
+		if (entry.method == STORED) {
+			data.get(ret);
+			return ret;
+		}
+
+		Inflater inflater = new Inflater(true);
+
+		try {
+			inflater.setInput(data);
+			int pos = 0;
+
+			while (pos < ret.length) {
+				int len = inflater.inflate(ret, pos, ret.length - pos);
+				if (len == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+				pos += len;
+			}
+
+			if (pos != ret.length) throw new ZipException(String.format("truncated entry %s", desc));
+			return ret;
+		} catch (DataFormatException e) {
+			throw new ZipException(String.format("invalid entry %s: %s", desc, e));
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static ByteBuffer getRawData(ByteBuffer buf, IndexEntry entry, Object desc) throws IOException {
+		if (buf == null) throw new IOException("class path closed");
+		if (entry.method != STORED && entry.method != DEFLATED) throw new ZipException(String.format("unsupported compression method %d for %s", entry.method, desc));
+
+		int header = entry.offset;
+		if (buf.getInt(header) != LOCAL_HEADER) throw new ZipException(String.format("invalid local header for %s", desc));
+
+		int start = header + 30 + u16(buf, header + 26) + u16(buf, header + 28);
+		return buf.slice(start, entry.compressedSize);
+	}
+
+	private ZipFile openJar(int idx) throws IOException {
+		ZipFile zf = state.openJars[idx];
+		if (zf != null) return zf;
+
+		synchronized (this) {
+			ZipFile[] openJars = state.openJars;
+
+			if (openJars[idx] == null) {
+				Path path = state.paths.get(idx);
+
+				try {
+					openJars[idx] = new JarFile(path.toFile(), false, ZipFile.OPEN_READ, Runtime.version());
+				} catch (IOException | ZipError e) {
+					throw new IOException(String.format("error opening %s: %s", LoaderUtil.normalizePath(path), e), e);
+				}
+			}
+
+			return openJars[idx];
+		}
+	}
+
+	private static int u16(ByteBuffer buf, int pos) {
+		return buf.getShort(pos) & 0xFFFF;
+	}
+
 	public final class CpEntry {
 		private CpEntry(int idx, String subPath, Object instance) {
 			this.idx = idx;
@@ -114,21 +451,57 @@ public final class SimpleClassPath implements Closeable {
 		}
 
 		public Path getOrigin() {
-			return paths.get(idx);
+			return state.paths.get(idx);
 		}
 
 		public String getSubPath() {
 			return subPath;
 		}
 
+		@SuppressWarnings("deprecation")
+		public URL getUrl() throws MalformedURLException {
+			if (state.jarMarkers[idx]) {
+				return new URL("jar:" + getOrigin().toUri() + "!/" + subPath);
+			} else {
+				return getOrigin().resolve(subPath).toUri().toURL();
+			}
+		}
+
 		public InputStream getInputStream() throws IOException {
-			if (instance instanceof ZipEntry) {
-				return openJars[idx].getInputStream((ZipEntry) instance);
+			if (instance instanceof IndexEntry) {
+				return new ByteArrayInputStream(getBytes());
+			} else if (instance instanceof ZipEntry) {
+				return state.openJars[idx].getInputStream((ZipEntry) instance);
 			} else {
 				return Files.newInputStream((Path) instance);
 			}
 		}
 
+		/**
+		 * Reads the whole entry.
+		 */
+		public byte[] getBytes() throws IOException {
+			if (!(instance instanceof IndexEntry)) {
+				try (InputStream is = getInputStream()) {
+					return is.readAllBytes();
+				}
+			}
+
+			return read(state.mappedJars[idx], (IndexEntry) instance, this);
+		}
+
+		/**
+		 * Returns the content of the entry as a buffer, without copying if the entry is stored uncompressed in a
+		 * mapped jar. The returned buffer is read-only and becomes invalid once the class path is closed.
+		 */
+		public ByteBuffer getByteBuffer() throws IOException {
+			if (instance instanceof IndexEntry entry && entry.method == STORED) {
+				return getRawData(state.mappedJars[idx], entry, this).asReadOnlyBuffer();
+			}
+
+			return ByteBuffer.wrap(getBytes());
+		}
+
 		@Override
 		public String toString() {
 			return String.format("%s:%s", getOrigin(), subPath);
@@ -139,7 +512,51 @@ public final class SimpleClassPath implements Closeable {
 		private final Object instance;
 	}
 
-	private final List<Path> paths;
-	private final boolean[] jarMarkers; // whether the path is a jar (otherwise plain dir)
-	private final ZipFile[] openJars;
+	private static final class IndexEntry {
+		IndexEntry(int idx, int offset, int compressedSize, int size, int method) {
+			this.idx = idx;
+			this.offset = offset;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.method = method;
+		}
+
+		IndexEntry copy() {
+			return new IndexEntry(idx, offset, compressedSize, size, method);
+		}
+
+		final int idx;
+		final int offset;
+		final int compressedSize;
+		final int size;
+		final int method;
+		volatile IndexEntry next; // same name in a later jar, appended when that jar is indexed
+	}
+
+	/**
+	 * Snapshot of the class path, replaced as a whole when a path is added so lookups see consistent arrays.
+	 */
+	private static final class State {
+		State(List<Path> paths, boolean[] jarMarkers) {
+			this(paths, jarMarkers, new ZipFile[paths.size()], new ByteBuffer[paths.size()], null, null);
+		}
+
+		State(List<Path> paths, boolean[] jarMarkers, ZipFile[] openJars, ByteBuffer[] mappedJars, Map<String, IndexEntry> index, int[] unindexed) {
+			this.paths = paths;
+			this.jarMarkers = jarMarkers;
+			this.openJars = openJars;
+			this.mappedJars = mappedJars;
+			this.index = index;
+			this.unindexed = unindexed;
+		}
+
+		final List<Path> paths;
+		final boolean[] jarMarkers; // whether the path is a jar (otherwise plain dir)
+		final ZipFile[] openJars; // written under the class path's lock
+		final ByteBuffer[] mappedJars;
+		final Map<String, IndexEntry> index; // entry name -> first indexed jar containing it, null until built
+		int[] unindexed; // directories and jars that couldn't be mapped, ascending
+	}
+
+	private volatile State state;
 }
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.launcher.impl;
+
+import me.nelonn.coprolite.loader.impl.CoproliteLoaderImpl;
+import me.nelonn.coprolite.loader.impl.LoaderPluginMetadata;
+import me.nelonn.coprolite.loader.impl.LoaderUtil;
+import me.nelonn.coprolite.loader.impl.SystemProperties;
+import me.nelonn.coprolite.loader.impl.TransformTargetIndex;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import me.nelonn.coprolite.loader.impl.plugin.PluginContainerImpl;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed on-disk cache of transformer output.
+ *
+ * <p>Entries live in a directory named after a fingerprint of everything that can influence the transformation
+ * result (class path, plugins, their mixin configs and access wideners, the launcher itself). Any change to these
+ * inputs yields a new directory, the stale ones are deleted on startup. Inside the directory every entry is keyed by
+ * the class name and its untransformed bytes, an empty file marks a class the pipeline left unchanged.
+ *
+ * <p>A hit bypasses Mixin entirely, so the cache is not used while any mixin config declares a config plugin, see
+ * {@link TransformTargetIndex#mayUseConfigPlugins}, nor for classes other targets extend or implement, see
+ * {@link TransformTargetIndex#isSupertypeTarget}.
+ */
+public final class TransformCache {
+    public static final String DEFAULT_DIRECTORY = "./.coprolite";
+    private static final int FORMAT_VERSION = 1;
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(TransformCache::createDigest);
+
+    private final Path directory;
+    private final ExecutorService writer;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private TransformCache(@NotNull Path directory) {
+        this.directory = directory;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Coprolite transform cache writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates the cache for the current set of inputs, deleting the entries of all previous input sets.
+     *
+     * @param fingerprint fingerprint of the inputs, see {@link #fingerprint}
+     * @return the cache or null if disabled or unavailable
+     */
+    public static @Nullable TransformCache create(@NotNull String fingerprint) {
+        if (!Boolean.parseBoolean(System.getProperty(SystemProperties.TRANSFORM_CACHE, "true"))) return null;
+
+        Path root = getCacheDirectory().resolve("transform");
+
+        try {
+            Path directory = root.resolve(fingerprint);
+            Files.createDirectories(directory);
+
+            int pruned = prune(root, directory);
+            if (pruned > 0) {
+                Log.info(LogCategory.CACHE, "Invalidated %d stale transform cache%s", pruned, pruned != 1 ? "s" : "");
+            }
+
+            Log.debug(LogCategory.CACHE, "Using transform cache %s", directory);
+            return new TransformCache(directory);
+        } catch (IOException e) {
+            Log.warn(LogCategory.CACHE, "Unable to set up transform cache in " + root + ", continuing without it", e);
+            return null;
+        }
+    }
+
+    public static @NotNull Path getCacheDirectory() {
+        return LoaderUtil.normalizePath(Paths.get(System.getProperty(SystemProperties.CACHE_DIR, DEFAULT_DIRECTORY)));
+    }
+
+    /**
+     * Computes the cache key of a class.
+     *
+     * @param className internal name of the class
+     * @param input untransformed class bytes
+     * @return the key to pass to {@link #get} and {@link #put}
+     */
+    public @NotNull String key(@NotNull String className, byte @NotNull [] input) {
+        MessageDigest digest = DIGEST.get();
+        digest.update(className.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(input);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Looks up the transformer output for a key.
+     *
+     * @param key key computed by {@link #key}
+     * @param input untransformed class bytes, returned if the class was cached as unchanged
+     * @return the cached output or null on a miss
+     */
+    public byte @Nullable [] get(@NotNull String key, byte @NotNull [] input) {
+        Path file = resolve(key);
+
+        try {
+            byte[] output = Files.readAllBytes(file);
+            hits.incrementAndGet();
+            return output.length == 0 ? input : output;
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            Log.debug(LogCategory.CACHE, "Unable to read transform cache entry " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the transformer output for a key, the write happens in the background.
+     *
+     * @param key key computed by {@link #key}
+     * @param input untransformed class bytes
+     * @param output transformer output, null or {@code input} if the class is unchanged
+     */
+    public void put(@NotNull String key, byte @NotNull [] input, byte @Nullable [] output) {
+        byte[] data = output == null || output == input || Arrays.equals(input, output) ? new byte[0] : output;
+        Path file = resolve(key);
+
+        writer.execute(() -> {
+            try {
+                Files.createDirectories(file.getParent());
+                Path tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+                Files.write(tmp, data);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Log.debug(LogCategory.CACHE, "Unable to write transform cache entry " + file, e);
+            }
+        });
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    public void logStats() {
+        Log.info(LogCategory.CACHE, "Transform cache: %d hit%s, %d miss%s", getHits(), getHits() != 1 ? "s" : "",
+                getMisses(), getMisses() != 1 ? "es" : "");
+    }
+
+    private Path resolve(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+    /**
+     * Computes a fingerprint of everything that can influence the transformation result.
+     *
+     * @param loader the frozen loader
+     * @param classPath every code source added to the class path
+     * @return hex encoded digest
+     */
+    public static @NotNull String fingerprint(@NotNull CoproliteLoaderImpl loader, @NotNull Collection<Path> classPath) throws IOException {
+        MessageDigest digest = createDigest();
+        putString(digest, "format " + FORMAT_VERSION);
+
+        CodeSource codeSource = TransformCache.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null) {
+            try {
+                putFile(digest, Paths.get(codeSource.getLocation().toURI()));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                putString(digest, codeSource.getLocation().toString());
+            }
+        }
+
+        for (Path path : classPath) {
+            putFile(digest, path);
+        }
+
+        List<PluginContainerImpl> plugins = new ArrayList<>(loader.getPluginsInternal());
+        plugins.sort(Comparator.comparing(plugin -> plugin.getMetadata().getId()));
+
+        for (PluginContainerImpl plugin : plugins) {
+            LoaderPluginMetadata metadata = plugin.getMetadata();
+            putString(digest, metadata.getId() + ' ' + metadata.getVersion());
+            putFile(digest, plugin.getRootPaths().get(0));
+
+            List<String> mixinConfigs = new ArrayList<>(metadata.getMixinConfigs());
+            Collections.sort(mixinConfigs);
+            for (String config : mixinConfigs) {
+                putJarEntry(digest, plugin, config);
+            }
+
+            if (metadata.getAccessWidener() != null) {
+                putJarEntry(digest, plugin, metadata.getAccessWidener());
+            }
+        }
+
+        // Mixin behaviour is configured through system properties as well
+        new TreeMap<>(System.getProperties()).forEach((key, value) -> {
+            if (key.toString().startsWith("mixin.")) {
+                putString(digest, key + "=" + value);
+            }
+        });
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void putString(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static void putFile(MessageDigest digest, Path path) throws IOException {
+        putString(digest, path.toString());
+        if (!Files.exists(path)) return;
+
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        putString(digest, attributes.size() + "@" + attributes.lastModifiedTime().toMillis());
+    }
+
+    private static void putJarEntry(MessageDigest digest, PluginContainerImpl plugin, String name) throws IOException {
+        putString(digest, name);
+        JarEntry entry = plugin.getJarFile().getJarEntry(name);
+        if (entry == null) return;
+
+        try (InputStream is = plugin.getJarFile().getInputStream(entry)) {
+            digest.update(is.readAllBytes());
+        }
+    }
+
+    private static int prune(Path root, Path current) throws IOException {
+        int pruned = 0;
+
+        try (Stream<Path> stream = Files.list(root)) {
+            for (Path stale : (Iterable<Path>) stream::iterator) {
+                if (stale.equals(current)) continue;
+
+                try (Stream<Path> walk = Files.walk(stale)) {
+                    for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                        Files.delete(path);
+                    }
+                }
+
+                pruned++;
+            }
+        }
+
+        return pruned;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.launcher.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event of a single class going through {@link Transformer#transform(ClassLoader, String, byte[], boolean)}.
+ *
+ * <p>The event is committed once per class while a recording has it enabled. Fields that take work to compute are only
+ * filled in after {@link #shouldCommit()}, so a disabled event costs a few field stores.
+ */
+@Name("coprolite.ClassTransform")
+@Label("Class Transform")
+@Category("Coprolite")
+@Description("A class going through the Coprolite transformation pipeline")
+@StackTrace(false)
+final class TransformEvent extends jdk.jfr.Event {
+    static final String PIPELINE = "pipeline";
+    static final String BAKED = "baked";
+    static final String CACHE = "cache";
+    static final String RELOCATE_ONLY = "relocate-only";
+
+    @Label("Class Name")
+    String className;
+
+    @Label("Class Loader")
+    String classLoader;
+
+    @Label("Source")
+    @Description("Where the output came from: pipeline, baked, cache or relocate-only")
+    String source;
+
+    @Label("Retransform")
+    boolean retransform;
+
+    @Label("Changed")
+    boolean changed;
+
+    @Label("Input Size")
+    @DataAmount
+    int inputSize;
+
+    @Label("Output Size")
+    @DataAmount
+    int outputSize;
+
+    @Label("Game Patch Time")
+    @Timespan
+    long gamePatchTime;
+
+    @Label("Relocation Time")
+    @Timespan
+    long relocationTime;
+
+    @Label("Mixin Time")
+    @Timespan
+    long mixinTime;
+
+    @Label("Mixins Applied")
+    int mixinsApplied;
+
+    static String describe(ClassLoader loader) {
+        if (loader == null) return "bootstrap";
+        return loader.getName() != null ? loader.getName() : loader.getClass().getName();
+    }
+}
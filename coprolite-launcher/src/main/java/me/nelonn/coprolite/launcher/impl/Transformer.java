@@ -19,22 +19,107 @@ package me.nelonn.coprolite.launcher.impl;
 import me.nelonn.coprolite.loader.api.CoproliteLauncher;
 import me.nelonn.coprolite.loader.impl.CoproliteMixinBootstrap;
 import me.nelonn.coprolite.loader.impl.CoproliteTransformer;
+import me.nelonn.coprolite.loader.impl.TransformTimings;
 
 import java.lang.instrument.ClassFileTransformer;
 import java.security.ProtectionDomain;
 
 public final class Transformer implements ClassFileTransformer {
+        static {
+            // Loaded before the transformer is registered, defining it from within the first transformation would recurse
+            TransformEvent.class.getName();
+        }
+
         @Override
         public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
                                 ProtectionDomain protectionDomain, byte[] bytes) {
-            if (!CoproliteMixinBootstrap.isMixinReady()) return bytes;
-            GameTransformer transformer = ((Launcher) CoproliteLauncher.getInstance()).getProvider().getTransformer();
-            if (transformer != null) {
-                byte[] patched = transformer.transform(className.replace('/', '.'));
-                if (patched != null) {
-                    bytes = patched;
+            // Classes of the Coprolite class loader are transformed when they are defined
+            if (loader instanceof CoproliteClassLoader) return null;
+
+            if (classBeingRedefined == null && CoproliteLauncher.getInstance() instanceof Launcher launcher && launcher.getPreloader() != null) {
+                launcher.getPreloader().record(loader, className);
+            }
+
+            return transform(loader, className, bytes, classBeingRedefined != null);
+        }
+
+        /**
+         * Runs the transformation pipeline on a class and emits a {@link TransformEvent} for it.
+         *
+         * @param loader the defining class loader, null for the bootstrap class loader
+         * @param className internal name of the class, may be null for hidden classes
+         * @param bytes class file bytes
+         * @param retransform whether the class is being redefined
+         * @return the transformed class or null if it is unchanged
+         */
+        static byte[] transform(ClassLoader loader, String className, byte[] bytes, boolean retransform) {
+            if (!CoproliteMixinBootstrap.isMixinReady()) return null;
+
+            TransformEvent event = new TransformEvent();
+            event.begin();
+            byte[] output = transform(className, bytes, retransform, event);
+
+            if (event.shouldCommit()) {
+                event.className = className;
+                event.classLoader = TransformEvent.describe(loader);
+                event.retransform = retransform;
+                event.changed = output != null;
+                event.inputSize = bytes.length;
+                event.outputSize = output != null ? output.length : bytes.length;
+                event.commit();
+            }
+
+            return output;
+        }
+
+        private static byte[] transform(String className, byte[] bytes, boolean retransform, TransformEvent event) {
+            Launcher launcher = (Launcher) CoproliteLauncher.getInstance();
+
+            if (className == null || !launcher.getTargetIndex().isTarget(className)) {
+                // Nothing targets the class, only relocate it. Null tells the JVM to keep the original bytes
+                event.source = TransformEvent.RELOCATE_ONLY;
+                long start = event.isEnabled() ? System.nanoTime() : 0;
+                byte[] relocated = CoproliteTransformer.relocate(bytes);
+                if (event.isEnabled()) event.relocationTime = System.nanoTime() - start;
+                return relocated != bytes ? relocated : null;
+            }
+
+            // Supertypes of other targets must pass through Mixin, so it can account for their mixins in subclasses
+            boolean supertypeTarget = launcher.getTargetIndex().isSupertypeTarget(className);
+            BakedJar bakedJar = !retransform && !supertypeTarget ? launcher.getBakedJar() : null;
+            if (bakedJar != null) {
+                byte[] baked = bakedJar.get(className, bytes);
+                if (baked != null) {
+                    event.source = TransformEvent.BAKED;
+                    return baked != bytes ? baked : null;
                 }
             }
-            return CoproliteTransformer.transform(loader, className, classBeingRedefined, protectionDomain, bytes);
+
+            // Retransformations are driven by mixin hotswap, their result must not be served from the cache
+            TransformCache cache = !retransform && !supertypeTarget ? launcher.getTransformCache() : null;
+            String key = null;
+            if (cache != null) {
+                key = cache.key(className, bytes);
+                byte[] cached = cache.get(key, bytes);
+                if (cached != null) {
+                    event.source = TransformEvent.CACHE;
+                    return cached != bytes ? cached : null;
+                }
+            }
+
+            GameTransformer transformer = launcher.getProvider().getTransformer();
+            TransformTimings timings = new TransformTimings();
+            byte[] output = CoproliteTransformer.transform(className, bytes, transformer != null ? transformer::transform : null, timings);
+
+            event.source = TransformEvent.PIPELINE;
+            event.gamePatchTime = timings.get(TransformTimings.Stage.GAME_PATCH);
+            event.relocationTime = timings.get(TransformTimings.Stage.RELOCATE);
+            event.mixinTime = timings.get(TransformTimings.Stage.MIXIN);
+            event.mixinsApplied = timings.getMixinsApplied();
+
+            if (cache != null) {
+                cache.put(key, bytes, output);
+            }
+            return output;
         }
-    }
\ No newline at end of file
+    }
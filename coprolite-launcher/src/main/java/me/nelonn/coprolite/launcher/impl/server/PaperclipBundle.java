@@ -0,0 +1,355 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.launcher.impl.server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import me.nelonn.coprolite.launcher.impl.TransformCache;
+import me.nelonn.coprolite.loader.impl.LoaderUtil;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the Paperclip bundle format without running Paperclip.
+ *
+ * <p>A bundle lists the server jar in {@code META-INF/versions.list} and its libraries in
+ * {@code META-INF/libraries.list}, one {@code <sha256>\t<id>\t<path>} line each, with the files stored under
+ * {@code META-INF/versions/} and {@code META-INF/libraries/}. They are extracted into the same directories of the
+ * bundler repository as Paperclip would. Files listed in {@code META-INF/patches.list} are produced by patching the
+ * vanilla server, that is left to Paperclip itself, it only runs when a patch output is missing or outdated.
+ *
+ * <p>Verifying and extracting the files runs in parallel. The verified class path is recorded in the cache directory
+ * together with the size and modification time of the bundle and of every file, so a launch with an unchanged bundle
+ * and repository skips hashing and extraction altogether.
+ */
+public final class PaperclipBundle {
+    public static final String MANIFEST_FILE = "paperclip.json";
+    private static final int FORMAT_VERSION = 1;
+    private static final String VERSIONS = "versions";
+    private static final String LIBRARIES = "libraries";
+
+    private final Path bundle;
+    private final Path repoDir;
+    private final Path manifest;
+
+    public PaperclipBundle(@NotNull Path bundle, @NotNull Path repoDir) {
+        this.bundle = LoaderUtil.normalizePath(bundle);
+        this.repoDir = LoaderUtil.normalizePath(repoDir);
+        this.manifest = TransformCache.getCacheDirectory().resolve(MANIFEST_FILE);
+    }
+
+    /**
+     * Sets up the class path of the bundle, versions first, then libraries, each in list order.
+     *
+     * @param paperclip runs Paperclip's own setup, called if patches have to be applied or the jar is no bundle
+     * @return the class path of the server
+     */
+    public @NotNull List<Path> setupClasspath(@NotNull Callable<List<Path>> paperclip) throws Exception {
+        List<Path> classPath = readManifest();
+
+        if (classPath != null) {
+            Log.debug(LogCategory.GAME_PROVIDER, "Paperclip bundle %s is unchanged, skipping extraction", bundle);
+            return classPath;
+        }
+
+        long start = System.nanoTime();
+
+        try (ZipFile zip = new ZipFile(bundle.toFile())) {
+            classPath = extract(zip);
+        }
+
+        if (classPath == null) {
+            Log.info(LogCategory.GAME_PROVIDER, "Running Paperclip to patch the server");
+            classPath = paperclip.call();
+        }
+
+        Log.info(LogCategory.GAME_PROVIDER, "Set up %d class path entr%s of %s in %.1f ms", classPath.size(), classPath.size() != 1 ? "ies" : "y",
+                bundle.getFileName(), (System.nanoTime() - start) * 1e-6);
+
+        try {
+            writeManifest(classPath);
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Unable to write Paperclip manifest " + manifest, e);
+        }
+
+        return classPath;
+    }
+
+    /**
+     * @return the main class of the bundled server, null if the bundle doesn't declare one
+     */
+    public @Nullable String getMainClass() throws IOException {
+        String ret = System.getProperty("bundlerMainClass");
+        if (ret != null) return ret;
+
+        try (ZipFile zip = new ZipFile(bundle.toFile())) {
+            List<String> lines = readLines(zip, "META-INF/main-class");
+            return lines != null && !lines.isEmpty() ? lines.get(0).trim() : null;
+        }
+    }
+
+    /**
+     * @return the class path or null if patches have to be applied or the jar is no bundle
+     */
+    private @Nullable List<Path> extract(ZipFile zip) throws IOException, InterruptedException {
+        List<FileEntry> versions = readEntries(zip, VERSIONS);
+        List<FileEntry> libraries = readEntries(zip, LIBRARIES);
+        if (versions == null) return null;
+
+        // <patch hash> <original hash> <output hash> <original path> <patch path> <output path>, prefixed by the location
+        Set<String> patched = new HashSet<>();
+        List<String> patches = readLines(zip, "META-INF/patches.list");
+        if (patches != null) {
+            for (String line : patches) {
+                String[] parts = line.split("\t");
+                if (parts.length != 7) throw new IOException("Invalid patches.list line: " + line);
+                patched.add(parts[0] + '/' + parts[6]);
+            }
+        }
+
+        List<FileEntry> entries = new ArrayList<>(versions);
+        if (libraries != null) entries.addAll(libraries);
+
+        AtomicInteger extracted = new AtomicInteger();
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+
+        for (FileEntry entry : entries) {
+            if (patched.contains(entry.location + '/' + entry.path)) {
+                tasks.add(() -> isValid(entry.getOutput(repoDir), entry.hash));
+            } else {
+                tasks.add(() -> {
+                    if (extract(zip, entry)) extracted.incrementAndGet();
+                    return true;
+                });
+            }
+        }
+
+        int threads = Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "Coprolite Paperclip extractor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        boolean patchesValid = true;
+
+        try {
+            for (Future<Boolean> future : executor.invokeAll(tasks)) {
+                patchesValid &= future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (extracted.get() > 0) {
+            Log.info(LogCategory.GAME_PROVIDER, "Extracted %d of %d bundled file%s", extracted.get(), entries.size(), entries.size() != 1 ? "s" : "");
+        }
+
+        if (!patchesValid) return null;
+
+        List<Path> ret = new ArrayList<>(entries.size());
+        for (FileEntry entry : entries) {
+            ret.add(entry.getOutput(repoDir));
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return true if the file was extracted, false if it was up to date
+     */
+    private boolean extract(ZipFile zip, FileEntry entry) throws IOException {
+        Path output = entry.getOutput(repoDir);
+        if (isValid(output, entry.hash)) return false;
+
+        String name = "META-INF/" + entry.location + '/' + entry.path;
+        ZipEntry zipEntry = zip.getEntry(name);
+        if (zipEntry == null) throw new IOException("Missing " + name + " in " + bundle);
+
+        Files.createDirectories(output.getParent());
+        Path tmp = Files.createTempFile(output.getParent(), output.getFileName().toString(), ".tmp");
+
+        try {
+            MessageDigest digest = createDigest();
+
+            try (InputStream is = new DigestInputStream(zip.getInputStream(zipEntry), digest);
+                 OutputStream os = Files.newOutputStream(tmp)) {
+                is.transferTo(os);
+            }
+
+            if (!HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(entry.hash)) {
+                throw new IOException("Hash mismatch of " + name + " in " + bundle);
+            }
+
+            Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static boolean isValid(Path file, String hash) throws IOException {
+        if (!Files.isRegularFile(file)) return false;
+
+        MessageDigest digest = createDigest();
+        byte[] buffer = new byte[64 * 1024];
+
+        try (InputStream is = Files.newInputStream(file)) {
+            int len;
+            while ((len = is.read(buffer)) >= 0) {
+                digest.update(buffer, 0, len);
+            }
+        }
+
+        return HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(hash);
+    }
+
+    private @Nullable List<Path> readManifest() {
+        try {
+            JsonObject json = JsonParser.parseString(Files.readString(manifest, StandardCharsets.UTF_8)).getAsJsonObject();
+            if (json.get("format").getAsInt() != FORMAT_VERSION
+                    || !json.get("bundle").getAsString().equals(stamp(bundle))
+                    || !json.get("repoDir").getAsString().equals(repoDir.toString())) {
+                return null;
+            }
+
+            List<Path> ret = new ArrayList<>();
+
+            for (JsonElement element : json.getAsJsonArray("classPath")) {
+                JsonObject entry = element.getAsJsonObject();
+                Path path = Paths.get(entry.get("path").getAsString());
+                if (!entry.get("stamp").getAsString().equals(stamp(path))) return null;
+                ret.add(path);
+            }
+
+            return ret;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            Log.debug(LogCategory.GAME_PROVIDER, "Unable to read Paperclip manifest " + manifest, e);
+            return null;
+        }
+    }
+
+    private void writeManifest(List<Path> classPath) throws IOException {
+        JsonArray entries = new JsonArray();
+
+        for (Path path : classPath) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("path", path.toString());
+            entry.addProperty("stamp", stamp(path));
+            entries.add(entry);
+        }
+
+        JsonObject json = new JsonObject();
+        json.addProperty("format", FORMAT_VERSION);
+        json.addProperty("bundle", stamp(bundle));
+        json.addProperty("repoDir", repoDir.toString());
+        json.add("classPath", entries);
+
+        Files.createDirectories(manifest.getParent());
+        Path tmp = Files.createTempFile(manifest.getParent(), MANIFEST_FILE, ".tmp");
+        Files.writeString(tmp, json.toString(), StandardCharsets.UTF_8);
+        Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String stamp(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return path + ":" + attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+    }
+
+    private static @Nullable List<FileEntry> readEntries(ZipFile zip, String location) throws IOException {
+        List<String> lines = readLines(zip, "META-INF/" + location + ".list");
+        if (lines == null) return null;
+
+        List<FileEntry> ret = new ArrayList<>(lines.size());
+
+        for (String line : lines) {
+            String[] parts = line.split("\t");
+            if (parts.length != 3) throw new IOException("Invalid " + location + ".list line: " + line);
+            ret.add(new FileEntry(location, parts[0], parts[2]));
+        }
+
+        return ret;
+    }
+
+    private static @Nullable List<String> readLines(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) return null;
+
+        List<String> ret = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) ret.add(line);
+            }
+        }
+
+        return ret;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record FileEntry(String location, String hash, String path) {
+        Path getOutput(Path repoDir) {
+            return repoDir.resolve(location).resolve(path);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package me.nelonn.coprolite.launcher.impl.server;
 
 import me.nelonn.coprolite.launcher.api.IServerProvider;
 import me.nelonn.coprolite.launcher.impl.GameTransformer;
+import me.nelonn.coprolite.launcher.impl.Launcher;
 import me.nelonn.coprolite.loader.api.CoproliteLauncher;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -39,7 +40,9 @@ public class PaperclipServerProvider implements IServerProvider {
     public static final String JAR_PROPERTY = "coprolite.jar";
     public static final String DEFAULT_JAR = "./server.jar";
     public static final String PAPERCLIP_MAIN = System.getProperty("coprolite.paperclip.main", "io.papermc.paperclip.Paperclip");
+    public static final String NATIVE_PROPERTY = "coprolite.paperclip.native";
     private Class<?> paperclipClass;
+    private String mainClassName;
     //private final GameTransformer transformer = new GameTransformer(new PaperPluginPatch());
     private final GameTransformer transformer = null;
 
@@ -81,22 +84,34 @@ public class PaperclipServerProvider implements IServerProvider {
 
         launcher.addToClassPath(jarPath);
 
+        List<Path> classPath;
+        if (Boolean.parseBoolean(System.getProperty(NATIVE_PROPERTY, "true"))) {
+            PaperclipBundle bundle = new PaperclipBundle(jarPath, Paths.get(System.getProperty("bundlerRepoDir", "")));
+            classPath = bundle.setupClasspath(this::setupClasspathWithPaperclip);
+            mainClassName = bundle.getMainClass();
+        } else {
+            classPath = setupClasspathWithPaperclip();
+        }
+
+        /*if (transformer != null) {
+            transformer.locateEntrypoints(launcher, classPath);
+        }*/
+        for (Path path : classPath) {
+            launcher.addToClassPath(path);
+        }
+    }
+
+    private List<Path> setupClasspathWithPaperclip() throws ReflectiveOperationException {
         paperclipClass = CoproliteLauncher.getInstance().getTargetClassLoader().loadClass(PAPERCLIP_MAIN);
         Method setupClasspath = paperclipClass.getDeclaredMethod("setupClasspath");
         setupClasspath.setAccessible(true);
-        List<Path> classPath = Arrays.stream((URL[]) setupClasspath.invoke(null)).map(url -> {
+        return Arrays.stream((URL[]) setupClasspath.invoke(null)).map(url -> {
             try {
                 return Paths.get(url.toURI());
             } catch (URISyntaxException e) {
                 throw new RuntimeException(e);
             }
         }).toList();
-        /*if (transformer != null) {
-            transformer.locateEntrypoints(launcher, classPath);
-        }*/
-        for (Path path : classPath) {
-            launcher.addToClassPath(path);
-        }
     }
 
     @Override
@@ -105,13 +120,17 @@ public class PaperclipServerProvider implements IServerProvider {
         ClassLoader parentClassLoader = PaperclipServerProvider.class.getClassLoader().getParent();
         URLClassLoader classLoader = new URLClassLoader(classpathUrls, parentClassLoader);*/
 
-        final String mainClassName;
-        try {
-            Method findMainClass = paperclipClass.getDeclaredMethod("findMainClass");
-            findMainClass.trySetAccessible();
-            mainClassName = (String) findMainClass.invoke(null);
-        } catch (Throwable e) {
-            throw new RuntimeException(e);
+        if (mainClassName == null) {
+            try {
+                if (paperclipClass == null) {
+                    paperclipClass = CoproliteLauncher.getInstance().getTargetClassLoader().loadClass(PAPERCLIP_MAIN);
+                }
+                Method findMainClass = paperclipClass.getDeclaredMethod("findMainClass");
+                findMainClass.trySetAccessible();
+                mainClassName = (String) findMainClass.invoke(null);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
         }
 
         System.out.println("Starting " + mainClassName);
@@ -119,9 +138,15 @@ public class PaperclipServerProvider implements IServerProvider {
         Thread runThread = new Thread(() -> {
             try {
                 //final Class<?> mainClass = Class.forName(mainClassName, true, classLoader);
-                final Class<?> mainClass = Class.forName(mainClassName);
+                final Class<?> mainClass = Class.forName(mainClassName, true, CoproliteLauncher.getInstance().getTargetClassLoader());
                 final MethodHandle mainHandle = MethodHandles.lookup().findStatic(mainClass, "main", MethodType.methodType(void.class, String[].class)).asFixedArity();
+                if (CoproliteLauncher.getInstance() instanceof Launcher launcher) {
+                    launcher.onServerMainStarting();
+                }
                 mainHandle.invoke((Object) args);
+                if (CoproliteLauncher.getInstance() instanceof Launcher launcher) {
+                    launcher.onServerStarted();
+                }
             } catch (final Throwable t) {
                 throw new RuntimeException(t);
             }
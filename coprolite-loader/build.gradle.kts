@@ -13,6 +13,7 @@ repositories {
 }
 
 var asm_version = project.properties["asm_version"].toString()
+var junit_version = project.properties["junit_version"].toString()
 
 dependencies {
     api(project(":coprolite-api"))
@@ -32,9 +33,16 @@ dependencies {
     api("com.google.code.gson:gson:2.10.1")
     api("com.google.guava:guava:32.1.3-jre")
     api("org.jetbrains:annotations:24.0.0")
+
+    testImplementation(platform("org.junit:junit-bom:${junit_version}"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 tasks.named<JavaCompile>("compileJava") {
     options.encoding = "UTF-8"
 }
 
+tasks.test {
+    useJUnitPlatform()
+}
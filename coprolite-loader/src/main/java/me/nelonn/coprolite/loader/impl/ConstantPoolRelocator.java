@@ -0,0 +1,613 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Relocates class names by rewriting the constant pool of a class file, leaving the rest of the class untouched.
+ *
+ * <p>Class names only ever appear in {@code CONSTANT_Utf8} entries. Entries referenced by {@code CONSTANT_Class} are
+ * matched as internal names (or array descriptors). Entries used as a descriptor or signature are matched as such:
+ * those of {@code CONSTANT_NameAndType} and {@code CONSTANT_MethodType}, field, method and record component
+ * descriptors, {@code Signature} attributes, local variable tables and the types within annotations. These are the
+ * names {@code ClassRemapper} maps, other Utf8 entries are left alone. Utf8 entries that are shared with a
+ * {@code CONSTANT_String} or an annotation's string value are split, so string values keep their value.
+ *
+ * <p>Only the constant pool is read unless an entry would be relocated, the attributes are scanned for the
+ * descriptors and string values they reference then.
+ *
+ * <p>Rules map internal name prefixes to their replacement, the longest matching prefix wins. A rule mapping a
+ * prefix to itself excludes that prefix from relocation. If no rule matches, the input array is returned as-is.
+ */
+public final class ConstantPoolRelocator {
+    public static final ConstantPoolRelocator EMPTY = new ConstantPoolRelocator(new byte[0][], new byte[0][]);
+
+    private static final int ROLE_STRING = 1;
+    private static final int ROLE_CLASS = 2;
+    private static final int ROLE_DESCRIPTOR = 4;
+
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int FLOAT = 4;
+    private static final int LONG = 5;
+    private static final int DOUBLE = 6;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELDREF = 9;
+    private static final int METHODREF = 10;
+    private static final int INTERFACE_METHODREF = 11;
+    private static final int NAME_AND_TYPE = 12;
+    private static final int METHOD_HANDLE = 15;
+    private static final int METHOD_TYPE = 16;
+    private static final int DYNAMIC = 17;
+    private static final int INVOKE_DYNAMIC = 18;
+    private static final int MODULE = 19;
+    private static final int PACKAGE = 20;
+
+    private static final int ATTRIBUTE_OTHER = 1;
+    private static final int ATTRIBUTE_CODE = 2;
+    private static final int ATTRIBUTE_SIGNATURE = 3;
+    private static final int ATTRIBUTE_LOCAL_VARIABLES = 4;
+    private static final int ATTRIBUTE_RECORD = 5;
+    private static final int ATTRIBUTE_ANNOTATIONS = 6;
+    private static final int ATTRIBUTE_PARAMETER_ANNOTATIONS = 7;
+    private static final int ATTRIBUTE_TYPE_ANNOTATIONS = 8;
+    private static final int ATTRIBUTE_ANNOTATION_DEFAULT = 9;
+
+    private static final byte[][] ATTRIBUTE_NAMES = ascii("Code", "Signature", "LocalVariableTable", "LocalVariableTypeTable", "Record",
+            "RuntimeVisibleAnnotations", "RuntimeInvisibleAnnotations", "RuntimeVisibleParameterAnnotations",
+            "RuntimeInvisibleParameterAnnotations", "RuntimeVisibleTypeAnnotations", "RuntimeInvisibleTypeAnnotations", "AnnotationDefault");
+    private static final int[] ATTRIBUTE_KINDS = { ATTRIBUTE_CODE, ATTRIBUTE_SIGNATURE, ATTRIBUTE_LOCAL_VARIABLES, ATTRIBUTE_LOCAL_VARIABLES,
+            ATTRIBUTE_RECORD, ATTRIBUTE_ANNOTATIONS, ATTRIBUTE_ANNOTATIONS, ATTRIBUTE_PARAMETER_ANNOTATIONS, ATTRIBUTE_PARAMETER_ANNOTATIONS,
+            ATTRIBUTE_TYPE_ANNOTATIONS, ATTRIBUTE_TYPE_ANNOTATIONS, ATTRIBUTE_ANNOTATION_DEFAULT };
+
+    private final byte[][] prefixes; // sorted by length, longest first
+    private final byte[][] replacements;
+
+    private ConstantPoolRelocator(byte[][] prefixes, byte[][] replacements) {
+        this.prefixes = prefixes;
+        this.replacements = replacements;
+    }
+
+    /**
+     * Compiles a set of relocation rules.
+     *
+     * @param rules internal name prefix to replacement, for example {@code org/bukkit/craftbukkit/} to
+     *              {@code org/bukkit/craftbukkit/v1_20_R3/}
+     * @return the relocator
+     */
+    public static @NotNull ConstantPoolRelocator of(@NotNull Map<String, String> rules) {
+        if (rules.isEmpty()) return EMPTY;
+
+        List<Map.Entry<String, String>> entries = new ArrayList<>(rules.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getKey().length(), a.getKey().length()));
+
+        byte[][] prefixes = new byte[entries.size()][];
+        byte[][] replacements = new byte[entries.size()][];
+
+        for (int i = 0; i < entries.size(); i++) {
+            String prefix = entries.get(i).getKey();
+            String replacement = entries.get(i).getValue();
+            if (prefix.isEmpty()) throw new IllegalArgumentException("empty relocation prefix");
+            if (!isAscii(prefix) || !isAscii(replacement)) throw new IllegalArgumentException("non-ASCII relocation rule " + prefix);
+
+            prefixes[i] = prefix.getBytes(StandardCharsets.US_ASCII);
+            replacements[i] = replacement.equals(prefix) ? null : replacement.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        return new ConstantPoolRelocator(prefixes, replacements);
+    }
+
+    public boolean isEmpty() {
+        return prefixes.length == 0;
+    }
+
+    /**
+     * Relocates a class file.
+     *
+     * @param data class file bytes
+     * @return the relocated class file, or {@code data} itself if nothing was relocated
+     */
+    public byte @NotNull [] relocate(byte @NotNull [] data) {
+        if (prefixes.length == 0) return data;
+
+        int count = readU2(data, 8);
+        int[] offsets = new int[count];
+        byte[] roles = new byte[count];
+        int pos = 10;
+
+        for (int i = 1; i < count; i++) {
+            offsets[i] = pos;
+
+            switch (data[pos] & 0xFF) {
+                case UTF8 -> pos += 3 + readU2(data, pos + 1);
+                case CLASS -> {
+                    roles[readU2(data, pos + 1)] |= ROLE_CLASS;
+                    pos += 3;
+                }
+                case STRING, MODULE, PACKAGE -> {
+                    roles[readU2(data, pos + 1)] |= ROLE_STRING;
+                    pos += 3;
+                }
+                case METHOD_TYPE -> {
+                    roles[readU2(data, pos + 1)] |= ROLE_DESCRIPTOR;
+                    pos += 3;
+                }
+                case NAME_AND_TYPE -> {
+                    roles[readU2(data, pos + 3)] |= ROLE_DESCRIPTOR;
+                    pos += 5;
+                }
+                case METHOD_HANDLE -> pos += 4;
+                case INTEGER, FLOAT, FIELDREF, METHODREF, INTERFACE_METHODREF, DYNAMIC, INVOKE_DYNAMIC -> pos += 5;
+                case LONG, DOUBLE -> {
+                    pos += 9;
+                    i++;
+                }
+                default -> throw new IllegalArgumentException("unknown constant pool tag " + data[pos] + " at " + pos);
+            }
+        }
+
+        int poolEnd = pos;
+        byte[][] relocated = null;
+
+        // candidates first, so classes without any match are never scanned beyond the constant pool. String constants
+        // are candidates too, the same Utf8 entry may be a descriptor which only the scan reveals
+        for (int i = 1; i < count; i++) {
+            int offset = offsets[i];
+            if (offset == 0 || data[offset] != UTF8) continue;
+
+            byte[] value = relocateUtf8(data, offset + 3, readU2(data, offset + 1), (roles[i] & ROLE_CLASS) != 0);
+            if (value == null) continue;
+
+            if (relocated == null) relocated = new byte[count][];
+            relocated[i] = value;
+        }
+
+        if (relocated == null) return data;
+
+        AttributeScanner scanner = new AttributeScanner(data, offsets, roles);
+        scanner.scanClass(poolEnd);
+        boolean changed = false;
+
+        for (int i = 1; i < count; i++) {
+            if (relocated[i] == null) continue;
+
+            if ((roles[i] & (ROLE_CLASS | ROLE_DESCRIPTOR)) != 0) {
+                changed = true;
+            } else {
+                relocated[i] = null; // a name or string value that merely looks like a descriptor
+            }
+        }
+
+        if (!changed) return data;
+
+        return write(data, count, offsets, roles, relocated, poolEnd, scanner);
+    }
+
+    private byte[] write(byte[] data, int count, int[] offsets, byte[] roles, byte[][] relocated, int poolEnd, AttributeScanner scanner) {
+        // Utf8 entries shared with string constants keep their original value in a copy appended to the pool
+        int[] copies = null;
+        int newCount = count;
+
+        for (int i = 1; i < count; i++) {
+            if (relocated[i] != null && (roles[i] & ROLE_STRING) != 0) {
+                if (copies == null) copies = new int[count];
+                copies[i] = newCount++;
+            }
+        }
+
+        if (newCount > 0xFFFF) throw new IllegalStateException("constant pool overflow while relocating");
+
+        ByteWriter out = new ByteWriter(data.length + 256);
+        out.write(data, 0, 8);
+        out.writeU2(newCount);
+
+        int copyFrom = 10;
+
+        for (int i = 1; i < count; i++) {
+            int offset = offsets[i];
+            if (offset == 0) continue; // second slot of a long or double
+            int tag = data[offset] & 0xFF;
+
+            if (tag == UTF8 && relocated[i] != null) {
+                out.write(data, copyFrom, offset - copyFrom);
+                out.writeByte(UTF8);
+                out.writeU2(relocated[i].length);
+                out.write(relocated[i], 0, relocated[i].length);
+                copyFrom = offset + 3 + readU2(data, offset + 1);
+            } else if (copies != null && (tag == STRING || tag == MODULE || tag == PACKAGE)) {
+                int target = copies[readU2(data, offset + 1)];
+                if (target == 0) continue;
+
+                out.write(data, copyFrom, offset - copyFrom);
+                out.writeByte(tag);
+                out.writeU2(target);
+                copyFrom = offset + 3;
+            }
+        }
+
+        out.write(data, copyFrom, poolEnd - copyFrom);
+
+        if (copies != null) {
+            for (int i = 1; i < count; i++) {
+                if (copies[i] == 0) continue;
+                int offset = offsets[i];
+                out.write(data, offset, 3 + readU2(data, offset + 1));
+            }
+        }
+
+        int shift = out.size() - poolEnd;
+        out.write(data, poolEnd, data.length - poolEnd);
+
+        if (copies != null) { // annotation string values referencing a split entry
+            for (int i = 0; i < scanner.stringValueCount; i++) {
+                int pos = scanner.stringValues[i];
+                int target = copies[readU2(data, pos)];
+                if (target != 0) out.setU2(pos + shift, target);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the relocated modified UTF-8 bytes, null if unchanged
+     */
+    private byte[] relocateUtf8(byte[] data, int start, int length, boolean className) {
+        int end = start + length;
+
+        if (className && length > 0 && data[start] != '[') {
+            int rule = match(data, start, end);
+            if (rule < 0 || replacements[rule] == null) return null;
+
+            ByteWriter out = new ByteWriter(length + replacements[rule].length);
+            out.write(replacements[rule], 0, replacements[rule].length);
+            int skip = prefixes[rule].length;
+            out.write(data, start + skip, length - skip);
+            return out.toByteArray();
+        }
+
+        // descriptor or signature, types start with 'L' after a boundary
+        ByteWriter out = null;
+        int copyFrom = start;
+
+        for (int i = start; i < end - 1; i++) {
+            if (data[i] != 'L' || !isTypeStart(data, start, i)) continue;
+
+            int rule = match(data, i + 1, end);
+            if (rule < 0 || replacements[rule] == null) continue;
+
+            if (out == null) out = new ByteWriter(length + 32);
+            out.write(data, copyFrom, i + 1 - copyFrom);
+            out.write(replacements[rule], 0, replacements[rule].length);
+            copyFrom = i + 1 + prefixes[rule].length;
+            i = copyFrom - 1;
+        }
+
+        if (out == null) return null;
+
+        out.write(data, copyFrom, end - copyFrom);
+        if (out.size() > 0xFFFF) throw new IllegalStateException("relocated constant exceeds 65535 bytes");
+        return out.toByteArray();
+    }
+
+    private int match(byte[] data, int start, int end) {
+        for (int rule = 0; rule < prefixes.length; rule++) {
+            byte[] prefix = prefixes[rule];
+            if (end - start < prefix.length) continue;
+
+            if (Arrays.equals(data, start, start + prefix.length, prefix, 0, prefix.length)) {
+                return rule;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Checks whether the type at {@code pos} starts a new type: at the beginning, after a delimiter or after a run of
+     * primitive types which itself follows one.
+     */
+    private static boolean isTypeStart(byte[] data, int start, int pos) {
+        int i = pos - 1;
+        while (i >= start && isPrimitive(data[i])) i--;
+
+        return i < start || isBoundary(data[i]);
+    }
+
+    private static boolean isPrimitive(byte b) {
+        return switch (b) {
+            case 'B', 'C', 'D', 'F', 'I', 'J', 'S', 'Z' -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean isBoundary(byte b) {
+        return switch (b) {
+            case '(', ')', ';', '[', '<', '>', '*', '+', '-', ':', '^' -> true;
+            default -> false;
+        };
+    }
+
+    private static byte[][] ascii(String... values) {
+        byte[][] ret = new byte[values.length][];
+
+        for (int i = 0; i < values.length; i++) {
+            ret[i] = values[i].getBytes(StandardCharsets.US_ASCII);
+        }
+
+        return ret;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) return false;
+        }
+
+        return true;
+    }
+
+    private static int readU2(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] data, int pos) {
+        return (readU2(data, pos) << 16) | readU2(data, pos + 2);
+    }
+
+    /**
+     * Walks the fields, methods and attributes of a class file, marking the Utf8 entries used as descriptors or
+     * signatures and recording where annotations reference a Utf8 entry as their string value.
+     */
+    private static final class AttributeScanner {
+        private final byte[] data;
+        private final int[] offsets;
+        private final byte[] roles;
+        private final byte[] attributeKinds; // by name index, resolved on first use
+        private int pos;
+
+        int[] stringValues = new int[0]; // positions of the indices
+        int stringValueCount;
+
+        AttributeScanner(byte[] data, int[] offsets, byte[] roles) {
+            this.data = data;
+            this.offsets = offsets;
+            this.roles = roles;
+            this.attributeKinds = new byte[offsets.length];
+        }
+
+        void scanClass(int poolEnd) {
+            pos = poolEnd + 6; // access flags, this and super class
+            pos += 2 + 2 * readU2(data, pos); // interfaces
+
+            for (int kind = 0; kind < 2; kind++) { // fields, then methods
+                int members = readU2(data, pos);
+                pos += 2;
+
+                for (int i = 0; i < members; i++) {
+                    markDescriptor(pos + 4);
+                    pos += 6;
+                    scanAttributes();
+                }
+            }
+
+            scanAttributes();
+        }
+
+        private void scanAttributes() {
+            int count = readU2(data, pos);
+            pos += 2;
+
+            for (int i = 0; i < count; i++) {
+                int kind = getAttributeKind(readU2(data, pos));
+                int end = pos + 6 + readInt(data, pos + 2);
+                pos += 6;
+
+                switch (kind) {
+                    case ATTRIBUTE_CODE -> {
+                        pos += 8 + readInt(data, pos + 4); // max stack, max locals, code
+                        pos += 2 + 8 * readU2(data, pos); // exception table
+                        scanAttributes();
+                    }
+                    case ATTRIBUTE_SIGNATURE -> markDescriptor(pos);
+                    case ATTRIBUTE_LOCAL_VARIABLES -> {
+                        int entries = readU2(data, pos);
+
+                        for (int j = 0; j < entries; j++) {
+                            markDescriptor(pos + 2 + 10 * j + 6);
+                        }
+                    }
+                    case ATTRIBUTE_RECORD -> {
+                        int components = readU2(data, pos);
+                        pos += 2;
+
+                        for (int j = 0; j < components; j++) {
+                            markDescriptor(pos + 2);
+                            pos += 4;
+                            scanAttributes();
+                        }
+                    }
+                    case ATTRIBUTE_ANNOTATIONS -> scanAnnotations();
+                    case ATTRIBUTE_PARAMETER_ANNOTATIONS -> {
+                        int parameters = data[pos++] & 0xFF;
+
+                        for (int j = 0; j < parameters; j++) {
+                            scanAnnotations();
+                        }
+                    }
+                    case ATTRIBUTE_TYPE_ANNOTATIONS -> {
+                        int annotations = readU2(data, pos);
+                        pos += 2;
+
+                        for (int j = 0; j < annotations; j++) {
+                            skipTypeAnnotationTarget();
+                            scanAnnotation();
+                        }
+                    }
+                    case ATTRIBUTE_ANNOTATION_DEFAULT -> scanElementValue();
+                    default -> { }
+                }
+
+                pos = end;
+            }
+        }
+
+        private void scanAnnotations() {
+            int annotations = readU2(data, pos);
+            pos += 2;
+
+            for (int i = 0; i < annotations; i++) {
+                scanAnnotation();
+            }
+        }
+
+        private void scanAnnotation() {
+            markDescriptor(pos);
+            int pairs = readU2(data, pos + 2);
+            pos += 4;
+
+            for (int i = 0; i < pairs; i++) {
+                pos += 2; // element name
+                scanElementValue();
+            }
+        }
+
+        private void scanElementValue() {
+            int tag = data[pos++];
+
+            switch (tag) {
+                case 'B', 'C', 'D', 'F', 'I', 'J', 'S', 'Z' -> pos += 2;
+                case 's' -> {
+                    roles[readU2(data, pos)] |= ROLE_STRING;
+                    if (stringValueCount == stringValues.length) stringValues = Arrays.copyOf(stringValues, Math.max(8, stringValueCount * 2));
+                    stringValues[stringValueCount++] = pos;
+                    pos += 2;
+                }
+                case 'e' -> { // type descriptor and constant name
+                    markDescriptor(pos);
+                    pos += 4;
+                }
+                case 'c' -> {
+                    markDescriptor(pos);
+                    pos += 2;
+                }
+                case '@' -> scanAnnotation();
+                case '[' -> {
+                    int values = readU2(data, pos);
+                    pos += 2;
+
+                    for (int i = 0; i < values; i++) {
+                        scanElementValue();
+                    }
+                }
+                default -> throw new IllegalArgumentException("unknown element value tag " + tag + " at " + (pos - 1));
+            }
+        }
+
+        private void skipTypeAnnotationTarget() {
+            int target = data[pos++] & 0xFF;
+
+            switch (target) {
+                case 0x00, 0x01, 0x16 -> pos += 1; // type parameter, formal parameter
+                case 0x10, 0x11, 0x12, 0x17, 0x42, 0x43, 0x44, 0x45, 0x46 -> pos += 2; // supertype, bound, throws, catch, offset
+                case 0x13, 0x14, 0x15 -> { } // field, return, receiver
+                case 0x40, 0x41 -> pos += 2 + 6 * readU2(data, pos); // local variable
+                case 0x47, 0x48, 0x49, 0x4A, 0x4B -> pos += 3; // type argument
+                default -> throw new IllegalArgumentException("unknown type annotation target " + target + " at " + (pos - 1));
+            }
+
+            pos += 1 + 2 * (data[pos] & 0xFF); // type path
+        }
+
+        private void markDescriptor(int pos) {
+            roles[readU2(data, pos)] |= ROLE_DESCRIPTOR;
+        }
+
+        private int getAttributeKind(int nameIndex) {
+            int ret = attributeKinds[nameIndex];
+            if (ret != 0) return ret;
+
+            int offset = offsets[nameIndex];
+            int length = readU2(data, offset + 1);
+            ret = ATTRIBUTE_OTHER;
+
+            for (int i = 0; i < ATTRIBUTE_NAMES.length; i++) {
+                byte[] name = ATTRIBUTE_NAMES[i];
+
+                if (Arrays.equals(data, offset + 3, offset + 3 + length, name, 0, name.length)) {
+                    ret = ATTRIBUTE_KINDS[i];
+                    break;
+                }
+            }
+
+            attributeKinds[nameIndex] = (byte) ret;
+            return ret;
+        }
+    }
+
+    private static final class ByteWriter {
+        private byte[] buf;
+        private int size;
+
+        ByteWriter(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        void writeU2(int v) {
+            ensure(2);
+            buf[size++] = (byte) (v >>> 8);
+            buf[size++] = (byte) v;
+        }
+
+        void write(byte[] src, int off, int len) {
+            ensure(len);
+            System.arraycopy(src, off, buf, size, len);
+            size += len;
+        }
+
+        void setU2(int pos, int v) {
+            buf[pos] = (byte) (v >>> 8);
+            buf[pos + 1] = (byte) v;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return size == buf.length ? buf : Arrays.copyOf(buf, size);
+        }
+
+        private void ensure(int len) {
+            if (size + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + len));
+            }
+        }
+    }
+}
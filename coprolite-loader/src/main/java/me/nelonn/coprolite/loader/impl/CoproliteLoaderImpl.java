@@ -19,16 +19,19 @@ package me.nelonn.coprolite.loader.impl;
 import me.nelonn.coprolite.api.ObjectShare;
 import me.nelonn.coprolite.api.CoproliteLoader;
 import me.nelonn.coprolite.api.PluginContainer;
-import me.nelonn.coprolite.api.PluginInitializer;
+import me.nelonn.coprolite.api.PluginDependency;
 import me.nelonn.coprolite.loader.api.CoproliteLauncher;
 import me.nelonn.coprolite.loader.impl.log.Log;
 import me.nelonn.coprolite.loader.impl.log.LogCategory;
 import me.nelonn.coprolite.loader.impl.plugin.PluginCandidate;
 import me.nelonn.coprolite.loader.impl.plugin.PluginContainerImpl;
 import me.nelonn.coprolite.loader.impl.plugin.PluginDiscoverer;
+import me.nelonn.coprolite.loader.impl.plugin.PluginResolutionException;
+import me.nelonn.coprolite.loader.impl.plugin.PluginResolver;
 import net.fabricmc.accesswidener.AccessWidener;
 import net.fabricmc.accesswidener.AccessWidenerReader;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Opcodes;
 
 import java.io.BufferedReader;
@@ -36,6 +39,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CoproliteLoaderImpl implements CoproliteLoader {
     public static CoproliteLoaderImpl INSTANCE = new CoproliteLoaderImpl();
@@ -43,10 +52,12 @@ public class CoproliteLoaderImpl implements CoproliteLoader {
     public static final int ASM_VERSION = Opcodes.ASM9;
 
     private List<PluginCandidate> pluginCandidates;
-    protected final Map<String, PluginContainerImpl> pluginMap = new HashMap<>();
+    protected final Map<String, PluginContainerImpl> pluginMap = new LinkedHashMap<>(); // dependencies first
     protected Collection<PluginContainerImpl> plugins = Collections.unmodifiableCollection(pluginMap.values());
 
-    private final ObjectShareImpl objectShare = new ObjectShareImpl();
+    private final Map<String, PluginContainerImpl> lazyPlugins = new ConcurrentHashMap<>(); // not yet initialized
+    private volatile boolean lazyPluginsKnown = false;
+    private final ObjectShareImpl objectShare = new ObjectShareImpl(this::onObjectShareAccess);
     private final AccessWidener accessWidener = new AccessWidener();
 
     private boolean frozen = false;
@@ -75,9 +86,28 @@ public class CoproliteLoaderImpl implements CoproliteLoader {
     @Override
     @NotNull
     public Optional<PluginContainer> getPluginContainer(@NotNull String id) {
+        setupLazyPlugin(id);
         return Optional.ofNullable(this.pluginMap.get(id));
     }
 
+    @Override
+    public void initializePlugin(@NotNull String id) {
+        if (!frozen) throw new IllegalStateException("Plugins are initialized once the loader is frozen");
+        PluginContainerImpl plugin = pluginMap.get(id);
+        if (plugin == null) return;
+
+        try {
+            if (lazyPlugins.containsKey(id)) setupPlugin(plugin);
+        } catch (Throwable e) {
+            if (plugin.getInitFailure() == null) { // not its own failure, waiting for it would close a cycle
+                throw e instanceof IllegalStateException ise ? ise : new IllegalStateException(e);
+            }
+        }
+
+        Throwable failure = plugin.getInitFailure();
+        if (failure != null) throw new IllegalStateException(getSetupFailure(plugin), failure);
+    }
+
     @Override
     @NotNull
     public Collection<PluginContainer> getAllPlugins() {
@@ -94,6 +124,24 @@ public class CoproliteLoaderImpl implements CoproliteLoader {
         return this.plugins;
     }
 
+    /**
+     * @return the plugin without initializing it if it's lazy
+     */
+    @Nullable
+    public PluginContainerImpl getPluginInternal(@NotNull String id) {
+        return this.pluginMap.get(id);
+    }
+
+    /**
+     * @return whether later accesses have to be reported still, until the plugin turns out not to be lazy or is done
+     * initializing
+     */
+    private boolean onObjectShareAccess(@NotNull String pluginId) {
+        if (!lazyPluginsKnown) return true;
+        setupLazyPlugin(pluginId);
+        return lazyPlugins.containsKey(pluginId);
+    }
+
     public AccessWidener getAccessWidener() {
         return this.accessWidener;
     }
@@ -109,8 +157,20 @@ public class CoproliteLoaderImpl implements CoproliteLoader {
             if (!pluginsPath.toFile().exists()) {
                 pluginsPath.toFile().mkdirs();
             }
+            long start = System.nanoTime();
             PluginDiscoverer discoverer = new PluginDiscoverer(pluginsPath);
             this.pluginCandidates = discoverer.discoverPlugins(this);
+            start = StartupTimings.record(StartupTimings.DISCOVERY, start);
+
+            try {
+                this.pluginCandidates = new PluginResolver(PluginResolver.getBuiltins()).resolve(this.pluginCandidates);
+            } catch (PluginResolutionException e) {
+                for (String problem : e.getProblems()) {
+                    Log.error(LogCategory.RESOLUTION, problem);
+                }
+                throw new RuntimeException("Unable to resolve plugin dependencies, see the problems above", e);
+            }
+            StartupTimings.record(StartupTimings.RESOLUTION, start);
 
             Log.info(LogCategory.GENERAL, "Loading " + pluginCandidates.size() + " coprolite plugin" + (pluginCandidates.size() > 1 ? "s" : "") + ": " +
                     pluginCandidates.stream().map(it -> it.getMetadata().getId() + ' ' + it.getMetadata().getVersion()).toList());
@@ -137,26 +197,153 @@ public class CoproliteLoaderImpl implements CoproliteLoader {
 
     private void setupPlugins() {
         for (PluginContainerImpl plugin : plugins) {
-            String entrypoint = plugin.getMetadata().getEntrypoint();
-            if (entrypoint == null) continue;
+            if (isLazy(plugin)) {
+                lazyPlugins.put(plugin.getMetadata().getId(), plugin);
+            }
+        }
+
+        lazyPluginsKnown = true;
+
+        if (!lazyPlugins.isEmpty()) {
+            Log.debug(LogCategory.ENTRYPOINT, "Deferring lazy plugins %s until they are accessed", lazyPlugins.keySet());
+        }
+
+        if (Boolean.getBoolean(SystemProperties.PARALLEL_INIT)) {
+            setupPluginsParallel();
+            return;
+        }
+
+        for (PluginContainerImpl plugin : plugins) {
+            if (lazyPlugins.containsKey(plugin.getMetadata().getId())) continue;
+
             try {
-                Class<?> clazz = Class.forName(entrypoint);
+                setupPlugin(plugin);
+            } catch (Throwable e) {
+                throw new RuntimeException(getSetupFailure(plugin), e);
+            }
+        }
+    }
+
+    /**
+     * Initializes the plugins on a fork-join pool, each plugin starts once all of its dependencies are initialized.
+     * All failures are logged and thrown together, the dependents of a failed plugin are not initialized.
+     */
+    private void setupPluginsParallel() {
+        long start = System.nanoTime();
+        int parallelism = Math.max(1, Math.min(plugins.size(), Runtime.getRuntime().availableProcessors()));
+        ClassLoader targetClassLoader = CoproliteLauncher.getInstance().getTargetClassLoader();
+        AtomicInteger threads = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("Coprolite plugin init #" + threads.getAndIncrement());
+            thread.setContextClassLoader(targetClassLoader);
+            return thread;
+        }, null, false);
 
-                Class<? extends PluginInitializer> initializerClass;
+        Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        Map<PluginContainerImpl, Throwable> failures = new ConcurrentHashMap<>();
+
+        try {
+            for (PluginContainerImpl plugin : plugins) { // dependencies come first
+                if (lazyPlugins.containsKey(plugin.getMetadata().getId())) {
+                    futures.put(plugin.getMetadata().getId(), CompletableFuture.completedFuture(null));
+                    continue;
+                }
+
+                CompletableFuture<?>[] dependencies = plugin.getMetadata().getDependencies().stream()
+                        .map(dependency -> futures.get(dependency.getPluginId()))
+                        .filter(Objects::nonNull)
+                        .toArray(CompletableFuture[]::new);
+
+                futures.put(plugin.getMetadata().getId(), CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+                    try {
+                        setupPlugin(plugin);
+                    } catch (Throwable e) {
+                        failures.put(plugin, e);
+                        throw new CompletionException(e);
+                    }
+                }, pool));
+            }
+
+            List<String> skipped = new ArrayList<>();
+            for (PluginContainerImpl plugin : plugins) {
                 try {
-                    initializerClass = clazz.asSubclass(PluginInitializer.class);
-                } catch (ClassCastException ex) {
-                    throw new IllegalStateException("Entrypoint class `" + entrypoint + "' does not extend PluginInitializer", ex);
+                    futures.get(plugin.getMetadata().getId()).join();
+                } catch (CompletionException e) {
+                    if (!failures.containsKey(plugin)) skipped.add(plugin.getMetadata().getId());
                 }
+            }
 
-                PluginInitializer pluginInitializer = initializerClass.getConstructor().newInstance();
-                pluginInitializer.onInitialize(plugin);
-            } catch (Throwable e) {
-                throw new RuntimeException(String.format("Failed to setup plugin %s (%s)", plugin.getMetadata().getName(), plugin.getMetadata().getId()), e);
+            if (!failures.isEmpty()) {
+                RuntimeException exception = new RuntimeException(String.format("Failed to setup %d plugin%s%s", failures.size(), failures.size() != 1 ? "s" : "",
+                        skipped.isEmpty() ? "" : ", skipped their dependents " + skipped));
+
+                for (PluginContainerImpl plugin : plugins) {
+                    Throwable failure = failures.get(plugin);
+                    if (failure == null) continue;
+                    Log.error(LogCategory.ENTRYPOINT, getSetupFailure(plugin), failure);
+                    exception.addSuppressed(new RuntimeException(getSetupFailure(plugin), failure));
+                }
+
+                throw exception;
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        Log.debug(LogCategory.ENTRYPOINT, "Initialized %d plugins in %.1f ms on %d threads", plugins.size(), (System.nanoTime() - start) * 1e-6, parallelism);
+    }
+
+    /**
+     * Initializes a plugin after its dependencies. Lazy dependencies are left to be initialized when they are accessed,
+     * so depending on a lazy plugin doesn't make it eager.
+     */
+    private void setupPlugin(@NotNull PluginContainerImpl plugin) throws ReflectiveOperationException {
+        if (plugin.isInitialized()) return;
+        String id = plugin.getMetadata().getId();
+
+        try {
+            for (PluginDependency dependency : plugin.getMetadata().getDependencies()) {
+                PluginContainerImpl container = pluginMap.get(dependency.getPluginId());
+                if (container != null && !isLazy(container)) setupPlugin(container);
             }
+
+            plugin.initialize();
+        } catch (Throwable e) {
+            plugin.fail(e); // a dependency failed, don't run it later
+
+            // once, later accesses carry on without it. A cycle isn't the plugin's failure, another thread initializes it
+            if (plugin.getInitFailure() != null && lazyPlugins.remove(id) != null) Log.error(LogCategory.ENTRYPOINT, getSetupFailure(plugin), e);
+            throw e;
+        }
+
+        if (plugin.isInitialized() && lazyPlugins.remove(id) != null) { // not re-entered from its entrypoint
+            Log.debug(LogCategory.ENTRYPOINT, "Initialized lazy plugin %s", id);
+        }
+    }
+
+    /**
+     * Initializes a lazy plugin, a failure is logged by {@link #setupPlugin} and doesn't reach the accessor. Neither
+     * does a cycle, the accessor carries on with the plugin uninitialized.
+     */
+    private void setupLazyPlugin(@NotNull String id) {
+        PluginContainerImpl plugin = lazyPlugins.get(id);
+        if (plugin == null) return;
+
+        try {
+            setupPlugin(plugin);
+        } catch (Throwable ignored) {
         }
     }
 
+    private static boolean isLazy(PluginContainerImpl plugin) {
+        return plugin.getMetadata().isLazyEntrypoint() && plugin.getMetadata().getEntrypoint() != null;
+    }
+
+    private static String getSetupFailure(PluginContainerImpl plugin) {
+        return String.format("Failed to setup plugin %s (%s)", plugin.getMetadata().getName(), plugin.getMetadata().getId());
+    }
+
     public void loadAccessWideners() {
         AccessWidenerReader accessWidenerReader = new AccessWidenerReader(this.accessWidener);
 
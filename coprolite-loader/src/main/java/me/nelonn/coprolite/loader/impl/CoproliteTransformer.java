@@ -17,79 +17,125 @@
 package me.nelonn.coprolite.loader.impl;
 
 import me.nelonn.coprolite.loader.impl.mixin.CoproliteMixinService;
+import net.fabricmc.accesswidener.AccessWidener;
+import net.fabricmc.accesswidener.AccessWidenerClassVisitor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.commons.ClassRemapper;
-import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.ClassNode;
 import org.spongepowered.asm.mixin.MixinEnvironment;
+import org.spongepowered.asm.mixin.transformer.ClassInfo;
 import org.spongepowered.asm.mixin.transformer.IMixinTransformer;
+import org.spongepowered.asm.transformers.MixinClassWriter;
 
-import java.security.ProtectionDomain;
+import java.util.Map;
+import java.util.function.Function;
 
+/**
+ * The class transformation pipeline.
+ *
+ * <p>Each class is parsed at most once into a {@link ClassNode} and written at most once. The stages run in order:
+ * <ol>
+ * <li>game patches replace the class bytes, they are prepared up front by the server provider
+ * <li>relocation rewrites the constant pool of the class file, see {@link ConstantPoolRelocator}
+ * <li>the class is read into the node, applying the access widener on the way
+ * <li>mixins are applied to the node
+ * <li>the node is written back if the access widener or a mixin changed it
+ * </ol>
+ */
 public class CoproliteTransformer {
 
-    public static byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
-                                   ProtectionDomain protectionDomain, byte[] bytes) {
-        /*IMixinTransformer transformer = CoproliteMixinService.getTransformer();
-        return transformer == null ? null : transformer.transformClass(MixinEnvironment.getDefaultEnvironment(),
-                className.replace('/', '.'), relocate(bytes));*/
-
-        IMixinTransformer transformer = CoproliteMixinService.getTransformer();
-
-        if (transformer == null) {
-            return null;
-        }
-
-        if (transformer != null) {
-            //bytes = transformer.transformClass(MixinEnvironment.getDefaultEnvironment(), className.replace('/', '.'), relocate(bytes));
-            bytes = transformer.transformClass(MixinEnvironment.getDefaultEnvironment(), className.replace('/', '.'), relocate(bytes));
+    /**
+     * Runs the transformation pipeline on a class.
+     *
+     * @param className internal name of the class
+     * @param bytes class file bytes as passed to the class file transformer
+     * @param gamePatches lookup of patched class bytes by binary name, null if there are no game patches
+     * @param timings receives the time spent in each stage
+     * @return the transformed class or null if it is unchanged
+     */
+    public static byte @Nullable [] transform(@NotNull String className, byte @NotNull [] bytes,
+                                              @Nullable Function<String, byte[]> gamePatches, @NotNull TransformTimings timings) {
+        String name = className.replace('/', '.');
+        byte[] input = bytes;
+        timings.recordInput(bytes.length);
+        long time = System.nanoTime();
+
+        if (gamePatches != null) {
+            byte[] patched = gamePatches.apply(name);
+            if (patched != null) {
+                bytes = patched;
+            }
         }
+        time = timings.record(TransformTimings.Stage.GAME_PATCH, time);
 
-        return bytes;
+        bytes = relocate(bytes);
+        time = timings.record(TransformTimings.Stage.RELOCATE, time);
 
-        /*boolean applyAccessWidener = CoproliteLoaderImpl.INSTANCE.getAccessWidener().getTargets().contains(className);
+        IMixinTransformer transformer = CoproliteMixinService.getTransformer();
+        AccessWidener accessWidener = CoproliteLoaderImpl.INSTANCE.getAccessWidener();
+        boolean widen = accessWidener.getTargets().contains(name);
 
-        if (!applyAccessWidener) return bytes;
+        if (transformer == null && !widen) {
+            return bytes != input ? bytes : null;
+        }
 
-        ClassReader classReader = new ClassReader(bytes);
-        ClassWriter classWriter = new ClassWriter(classReader, 0);
-        ClassVisitor visitor = classWriter;
-        int visitorCount = 0;
+        ClassReader reader = new ClassReader(bytes);
+        ClassNode node = new ClassNode();
+        ClassVisitor visitor = widen ? AccessWidenerClassVisitor.createClassVisitor(CoproliteLoaderImpl.ASM_VERSION, node, accessWidener) : node;
+        reader.accept(visitor, ClassReader.EXPAND_FRAMES);
+        time = timings.record(TransformTimings.Stage.READ, time);
 
-        //classReader.accept(new ClassRemapper(CoproliteLoaderImpl.ASM_VERSION, classWriter, remapper) { }, ClassReader.EXPAND_FRAMES);
+        boolean mixed = transformer != null && transformer.transformClass(MixinEnvironment.getDefaultEnvironment(), name, node);
+        time = timings.record(TransformTimings.Stage.MIXIN, time);
 
-        if (applyAccessWidener) {
-            visitor = AccessWidenerClassVisitor.createClassVisitor(CoproliteLoaderImpl.ASM_VERSION, classWriter, CoproliteLoaderImpl.INSTANCE.getAccessWidener());
-            visitorCount++;
+        if (mixed) {
+            ClassInfo info = ClassInfo.fromCache(name);
+            if (info != null) timings.setMixinsApplied(info.getAppliedMixins().size());
         }
 
-        if (visitorCount <= 0) {
-            return bytes;
+        if (!mixed && !widen) {
+            return bytes != input ? bytes : null;
         }
 
-        classReader.accept(visitor, 0);
-        return classWriter.toByteArray();*/
+        // Same as Mixin's own writer, frames of the expanded node are kept and the writer resolves hierarchy through Mixin
+        ClassWriter writer = mixed ? new MixinClassWriter(reader, ClassWriter.COMPUTE_MAXS) : new ClassWriter(reader, 0);
+        node.accept(writer);
+        byte[] output = writer.toByteArray();
+        timings.record(TransformTimings.Stage.WRITE, time);
+
+        return output;
     }
 
-    private final static Remapper remapper = new Remapper() {
-        /*@Override
-        public String map(String name) {
-            if (!name.startsWith("org/bukkit/craftbukkit/Main") && !name.startsWith("org/bukkit/craftbukkit/libs/") &&
-                    name.startsWith("org/bukkit/craftbukkit/") && !name.startsWith("org/bukkit/craftbukkit/v1_")) {
-                if (obcVersion == null) throw new IllegalStateException("Cannot detect minecraft version!");
-                return obcClassName + name.substring("org/bukkit/craftbukkit/".length());
-            }
-            return super.map(name);
-        }*/
-    };
-
-    private static byte[] relocate(byte[] data) {
-        ClassReader cr = new ClassReader(data);
-        ClassWriter cw = new ClassWriter(0);
-        cr.accept(new ClassRemapper(Opcodes.ASM9, cw, remapper) {
-        }, ClassReader.EXPAND_FRAMES);
-        return cw.toByteArray();
+    private static volatile ConstantPoolRelocator relocator = ConstantPoolRelocator.EMPTY;
+
+    /**
+     * Sets the class relocation rules applied to every loaded class.
+     *
+     * <p>For example, the CraftBukkit rules for a versioned server would be:
+     * <pre>
+     * "org/bukkit/craftbukkit/"      = "org/bukkit/craftbukkit/v1_20_R3/"
+     * "org/bukkit/craftbukkit/Main"  = "org/bukkit/craftbukkit/Main"
+     * "org/bukkit/craftbukkit/libs/" = "org/bukkit/craftbukkit/libs/"
+     * "org/bukkit/craftbukkit/v1_"   = "org/bukkit/craftbukkit/v1_"
+     * </pre>
+     *
+     * @param relocations internal name prefix to replacement, see {@link ConstantPoolRelocator#of(Map)}
+     */
+    public static void setRelocations(Map<String, String> relocations) {
+        relocator = ConstantPoolRelocator.of(relocations);
+    }
+
+    /**
+     * Applies the relocation rules to a class.
+     *
+     * @param data class file bytes
+     * @return the relocated class or {@code data} itself if nothing was relocated
+     */
+    public static byte[] relocate(byte[] data) {
+        return relocator.relocate(data);
     }
 
 }
@@ -27,6 +27,11 @@ public interface LoaderPluginMetadata extends PluginMetadata {
     @Nullable
     String getEntrypoint();
 
+    /**
+     * @return whether the entrypoint only runs once the plugin is accessed, instead of when the loader is frozen
+     */
+    boolean isLazyEntrypoint();
+
     @Nullable
     String getAccessWidener();
 
@@ -17,22 +17,63 @@
 package me.nelonn.coprolite.loader.impl;
 
 import me.nelonn.coprolite.api.ObjectShare;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
+/**
+ * Lock-free object share, reads are a {@link ConcurrentHashMap#get} and a volatile read.
+ *
+ * <p>Each key used maps to a {@link Slot} for good, so {@link Handle}s can hold on to it and skip the lookup. The slot
+ * holds the value, or a {@link Pending} with the consumers of {@link #whenAvailable} requests while there is none.
+ * All changes of a slot are compare-and-set, so exactly one put takes over the consumers and a request is either in
+ * the consumers taken over or sees the value.
+ */
 public class ObjectShareImpl implements ObjectShare {
-    private final Map<String, Object> values = new HashMap<>();
-    private final Map<String, List<BiConsumer<String, Object>>> pendingMap = new HashMap<>();
+    private static final Executor DEFAULT_EXECUTOR = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Coprolite ObjectShare callback #", 0).factory());
+
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+    private final Predicate<String> accessListener;
+
+    /**
+     * @param accessListener called with the plugin id of the key before a query that doesn't find a value, outside of
+     *                       any lock. Once it returns false, queries of a key used already don't call it anymore
+     */
+    public ObjectShareImpl(@NotNull Predicate<String> accessListener) {
+        this.accessListener = accessListener;
+    }
+
+    public ObjectShareImpl() {
+        this(pluginId -> false);
+    }
 
     @Override
-    public synchronized Object get(@NotNull String key) {
+    public Object get(@NotNull String key) {
+        Objects.requireNonNull(key, "null key");
+        Slot slot = slots.get(key);
+        Object value = slot != null ? slot.value() : null;
+        if (value != null) return value; // only valid keys have values
+
         validateKey(key);
+        onAccess(key, slot);
 
-        return values.get(key);
+        slot = slots.get(key);
+        return slot != null ? slot.value() : null;
     }
 
     @Override
@@ -41,20 +82,14 @@ public class ObjectShareImpl implements ObjectShare {
         validateKey(key);
         Objects.requireNonNull(value, "null value");
 
-        List<BiConsumer<String, Object>> pending;
-
-        synchronized (this) {
-            Object prev = values.put(key, value);
-            if (prev != null) return prev; // no new entry -> can't have pending entries for it
+        Object prev = getSlot(key).swap(value);
 
-            pending = pendingMap.remove(key);
+        if (prev instanceof Pending pending) {
+            pending.invoke(key, value);
+            return null;
         }
 
-        if (pending != null) {
-            invokePending(key, value, pending);
-        }
-
-        return null;
+        return prev;
     }
 
     @Override
@@ -63,28 +98,32 @@ public class ObjectShareImpl implements ObjectShare {
         validateKey(key);
         Objects.requireNonNull(value, "null value");
 
-        List<BiConsumer<String, Object>> pending;
-
-        synchronized (this) {
-            Object prev = values.putIfAbsent(key, value);
-            if (prev != null) return prev; // no new entry -> can't have pending entries for it
+        Slot slot = getSlot(key);
 
-            pending = pendingMap.remove(key);
-        }
+        for (;;) {
+            Object prev = slot.state;
+            if (prev != null && !(prev instanceof Pending)) return prev;
 
-        if (pending != null) {
-            invokePending(key, value, pending);
+            if (slot.compareAndSet(prev, value)) {
+                if (prev != null) ((Pending) prev).invoke(key, value);
+                return null;
+            }
         }
-
-        return null;
     }
 
     @Override
     @Nullable
-    public synchronized Object remove(@NotNull String key) {
+    public Object remove(@NotNull String key) {
         validateKey(key);
 
-        return values.remove(key);
+        Slot slot = slots.get(key);
+        if (slot == null) return null;
+
+        for (;;) {
+            Object prev = slot.state;
+            if (prev == null || prev instanceof Pending) return null; // keep the requests
+            if (slot.compareAndSet(prev, null)) return prev;
+        }
     }
 
     @Override
@@ -92,15 +131,12 @@ public class ObjectShareImpl implements ObjectShare {
         validateKey(key);
         Objects.requireNonNull(consumer, "null consumer");
 
-        Object value;
-
-        synchronized (this) {
-            value = values.get(key);
-
-            if (value == null) { // value doesn't exist yet, queue invocation for when it gets added
-                pendingMap.computeIfAbsent(key, ignore -> new ArrayList<>()).add(consumer);
-                return;
-            }
+        Slot slot = slots.get(key);
+        Object value = slot != null ? slot.value() : null;
+        if (value == null) {
+            onAccess(key, slot);
+            value = getSlot(key).addPending(consumer);
+            if (value == null) return;
         }
 
         // value exists already, invoke directly
@@ -112,6 +148,57 @@ public class ObjectShareImpl implements ObjectShare {
         this.whenAvailable(key, (string, value) -> consumer.accept(value));
     }
 
+    @Override
+    public void whenAvailableAsync(@NotNull String key, @NotNull BiConsumer<String, Object> consumer) {
+        whenAvailableAsync(key, DEFAULT_EXECUTOR, consumer);
+    }
+
+    @Override
+    public void whenAvailableAsync(@NotNull String key, @NotNull Executor executor, @NotNull BiConsumer<String, Object> consumer) {
+        validateKey(key);
+        Objects.requireNonNull(executor, "null executor");
+        Objects.requireNonNull(consumer, "null consumer");
+
+        Slot slot = getSlot(key);
+        whenAvailable(key, (k, value) -> slot.dispatcher().submit(executor, () -> {
+            try {
+                consumer.accept(k, value);
+            } catch (Throwable e) {
+                Log.error(LogCategory.GENERAL, "Exception in ObjectShare callback for " + k, e);
+            }
+        }));
+    }
+
+    @Override
+    public @NotNull CompletableFuture<Object> await(@NotNull String key) {
+        return await(key, DEFAULT_EXECUTOR);
+    }
+
+    @Override
+    public <T> @NotNull Handle<T> handle(@NotNull String key, @NotNull Class<T> type) {
+        validateKey(key);
+        Objects.requireNonNull(type, "null type");
+
+        return new HandleImpl<>(this, key, type, getSlot(key));
+    }
+
+    private Slot getSlot(String key) {
+        Slot slot = slots.get(key);
+        return slot != null ? slot : slots.computeIfAbsent(key, k -> new Slot(getPluginId(k)));
+    }
+
+    private void onAccess(String key, @Nullable Slot slot) {
+        if (slot == null) {
+            accessListener.test(getPluginId(key));
+        } else if (slot.reportAccess && !accessListener.test(slot.pluginId)) {
+            slot.reportAccess = false;
+        }
+    }
+
+    private static String getPluginId(String key) {
+        return key.substring(0, key.indexOf(':'));
+    }
+
     private static void validateKey(String key) {
         Objects.requireNonNull(key, "null key");
         int pos = key.indexOf(':');
@@ -120,10 +207,182 @@ public class ObjectShareImpl implements ObjectShare {
         }
     }
 
-    private static void invokePending(@NotNull String key, @NotNull Object value,
-                                      @NotNull List<BiConsumer<String, Object>> pending) {
-        for (BiConsumer<String, Object> consumer : pending) {
-            consumer.accept(key, value);
+    private static final class Slot {
+        private static final VarHandle STATE;
+
+        static {
+            try {
+                STATE = MethodHandles.lookup().findVarHandle(Slot.class, "state", Object.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final String pluginId;
+        volatile Object state; // null, value or Pending
+        volatile boolean reportAccess = true; // until the access listener declines
+        private volatile Dispatcher dispatcher;
+
+        Slot(String pluginId) {
+            this.pluginId = pluginId;
+        }
+
+        @Nullable Object value() {
+            Object state = this.state;
+            return state instanceof Pending ? null : state;
+        }
+
+        Object swap(Object value) {
+            return STATE.getAndSet(this, value);
+        }
+
+        boolean compareAndSet(Object expected, Object value) {
+            return STATE.compareAndSet(this, expected, value);
+        }
+
+        Dispatcher dispatcher() {
+            Dispatcher dispatcher = this.dispatcher;
+            if (dispatcher != null) return dispatcher;
+
+            synchronized (this) { // once per key with asynchronous requests
+                if (this.dispatcher == null) this.dispatcher = new Dispatcher();
+                return this.dispatcher;
+            }
+        }
+
+        /**
+         * @return the value if there is one, the consumer isn't queued then
+         */
+        @Nullable Object addPending(BiConsumer<String, Object> consumer) {
+            for (;;) {
+                Object prev = state;
+                if (prev != null && !(prev instanceof Pending)) return prev;
+
+                Pending pending = prev == null ? new Pending(List.of(consumer)) : ((Pending) prev).with(consumer);
+                if (compareAndSet(prev, pending)) return null;
+            }
+        }
+    }
+
+    /**
+     * Runs the asynchronous callbacks of a key one after another in the order they were submitted, each on its own
+     * executor. The next callback is handed to its executor once the previous one finished.
+     *
+     * <p>Whichever thread holds {@code running} drains the queue in a loop, callbacks finishing before their executor
+     * returned (inline executors, rejections) don't recurse into it, so the stack stays flat however long the queue.
+     */
+    private static final class Dispatcher {
+        private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        void submit(Executor executor, Runnable task) {
+            tasks.add(new Task(executor, task));
+            drain();
+        }
+
+        private void drain() {
+            while (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+                Task next;
+
+                while ((next = tasks.poll()) != null) {
+                    if (next.handOff()) return; // the executor's thread continues draining once the task finished
+                }
+
+                running.set(false); // recheck, a task may have been added before this
+            }
+        }
+
+        private final class Task implements Runnable {
+            private final Executor executor;
+            private final Runnable task;
+            private final AtomicBoolean decided = new AtomicBoolean(); // by execute() returning or the task finishing
+
+            Task(Executor executor, Runnable task) {
+                this.executor = executor;
+                this.task = task;
+            }
+
+            /**
+             * @return whether the task finishes after {@code execute} returned, its thread then continues draining
+             */
+            boolean handOff() {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    Log.warn(LogCategory.GENERAL, "ObjectShare callback rejected by its executor, running it on the calling thread");
+                    task.run();
+                    return false;
+                }
+
+                return decided.compareAndSet(false, true);
+            }
+
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    if (!decided.compareAndSet(false, true)) { // handOff returned already
+                        running.set(false);
+                        drain();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Requests for a key without value, immutable.
+     */
+    private record Pending(List<BiConsumer<String, Object>> consumers) {
+        Pending with(BiConsumer<String, Object> consumer) {
+            List<BiConsumer<String, Object>> ret = new ArrayList<>(consumers.size() + 1);
+            ret.addAll(consumers);
+            ret.add(consumer);
+            return new Pending(ret);
+        }
+
+        void invoke(String key, Object value) {
+            for (BiConsumer<String, Object> consumer : consumers) {
+                consumer.accept(key, value);
+            }
+        }
+    }
+
+    private record HandleImpl<T>(ObjectShareImpl share, String key, Class<T> type, Slot slot) implements Handle<T> {
+        @Override
+        public @NotNull String getKey() {
+            return key;
+        }
+
+        @Override
+        public @NotNull Class<T> getType() {
+            return type;
+        }
+
+        @Override
+        public @Nullable T get() {
+            Object value = slot.state;
+
+            if (value == null || value instanceof Pending) {
+                share.onAccess(key, slot);
+                value = slot.value();
+            }
+
+            return type.isInstance(value) ? type.cast(value) : null;
+        }
+
+        @Override
+        public void whenAvailable(@NotNull Consumer<? super T> consumer) {
+            Objects.requireNonNull(consumer, "null consumer");
+            share.whenAvailable(key, (k, value) -> {
+                if (type.isInstance(value)) {
+                    consumer.accept(type.cast(value));
+                } else {
+                    Log.warn(LogCategory.GENERAL, "ObjectShare value for %s is a %s, not a %s, dropping a handle's request for it",
+                            k, value.getClass().getName(), type.getName());
+                }
+            });
         }
     }
 }
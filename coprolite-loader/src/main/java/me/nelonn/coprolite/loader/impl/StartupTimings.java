@@ -0,0 +1,160 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Time spent in each phase of the startup, reported once the server main is about to run.
+ *
+ * <p>Phases are recorded in the order they first finish, a phase recorded repeatedly accumulates. Plugin phases are
+ * named {@code plugin/<id>}. Budgets are given in milliseconds through {@code -Dcoprolite.startupBudgets}, for
+ * example {@code discovery=200,mixin-init=1500,total=10000}, a phase exceeding its budget logs a warning.
+ */
+public final class StartupTimings {
+    public static final String CLASSPATH = "classpath";
+    public static final String PROVIDER_LOAD = "provider-load";
+    public static final String DISCOVERY = "discovery";
+    public static final String METADATA = "metadata";
+    public static final String RESOLUTION = "resolution";
+    public static final String ACCESS_WIDENERS = "access-wideners";
+    public static final String MIXIN_INIT = "mixin-init";
+    public static final String TRANSFORM_SETUP = "transform-setup";
+    public static final String MIXIN_FINISH = "mixin-finish";
+    public static final String SERVER_MAIN = "server-main";
+    public static final String TOTAL = "total";
+
+    private static final Map<String, Long> PHASES = new LinkedHashMap<>(); // guarded by itself
+
+    /**
+     * Records the time since {@code start} for a phase.
+     *
+     * @param phase the finished phase
+     * @param start {@link System#nanoTime()} at the start of the phase
+     * @return the current {@link System#nanoTime()}, the start of the next phase
+     */
+    public static long record(@NotNull String phase, long start) {
+        long now = System.nanoTime();
+        add(phase, now - start);
+        return now;
+    }
+
+    public static void add(@NotNull String phase, long nanos) {
+        synchronized (PHASES) {
+            PHASES.merge(phase, nanos, Long::sum);
+        }
+    }
+
+    public static @NotNull String plugin(@NotNull String id) {
+        return "plugin/" + id;
+    }
+
+    public static @NotNull Map<String, Long> getPhases() {
+        synchronized (PHASES) {
+            return new LinkedHashMap<>(PHASES);
+        }
+    }
+
+    /**
+     * Logs the summary, warns about phases over budget and writes the report.
+     *
+     * @param file JSON file to write the report to, null to only log it
+     */
+    public static void report(@Nullable Path file) {
+        Map<String, Long> phases = getPhases();
+        Map<String, Long> budgets = parseBudgets(System.getProperty(SystemProperties.STARTUP_BUDGETS, ""));
+
+        StringBuilder sb = new StringBuilder();
+        JsonArray json = new JsonArray();
+
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            if (phase.getKey().equals(TOTAL)) continue;
+            if (!sb.isEmpty()) sb.append(", ");
+            sb.append(String.format("%s %.1f ms", phase.getKey(), phase.getValue() * 1e-6));
+        }
+
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            double millis = phase.getValue() * 1e-6;
+            Long budget = budgets.get(phase.getKey());
+
+            JsonObject entry = new JsonObject();
+            entry.addProperty("name", phase.getKey());
+            entry.addProperty("ms", Math.round(millis * 10) / 10.0);
+
+            if (budget != null) {
+                entry.addProperty("budgetMs", budget);
+                entry.addProperty("overBudget", millis > budget);
+
+                if (millis > budget) {
+                    Log.warn(LogCategory.LAUNCHER, "Startup phase %s took %.1f ms, over its budget of %d ms", phase.getKey(), millis, budget);
+                }
+            }
+
+            json.add(entry);
+        }
+
+        Long total = phases.get(TOTAL);
+        Log.info(LogCategory.LAUNCHER, "Startup took %.1f ms (%s)", total != null ? total * 1e-6 : 0.0, sb);
+
+        if (file == null) return;
+
+        JsonObject report = new JsonObject();
+        report.add("phases", json);
+
+        try {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            Files.writeString(file, new GsonBuilder().setPrettyPrinting().create().toJson(report), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.warn(LogCategory.LAUNCHER, "Unable to write startup report " + file, e);
+        }
+    }
+
+    private static Map<String, Long> parseBudgets(String value) {
+        Map<String, Long> ret = new HashMap<>();
+
+        for (String budget : value.split(",")) {
+            if (budget.isBlank()) continue;
+            int pos = budget.lastIndexOf('=');
+
+            try {
+                if (pos < 0) throw new NumberFormatException("missing =");
+                ret.put(budget.substring(0, pos).trim(), Long.parseLong(budget.substring(pos + 1).trim()));
+            } catch (NumberFormatException e) {
+                Log.warn(LogCategory.LAUNCHER, "Invalid startup budget '%s', expected <phase>=<ms>", budget);
+            }
+        }
+
+        return ret;
+    }
+
+    private StartupTimings() {
+    }
+}
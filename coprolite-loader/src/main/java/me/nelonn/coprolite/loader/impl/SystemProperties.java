@@ -19,9 +19,25 @@ package me.nelonn.coprolite.loader.impl;
 public final class SystemProperties {
     public static final String LOG_FILE = "coprolite.log.file";
     public static final String LOG_LEVEL = "coprolite.log.level";
+    public static final String LOG_BUFFER_SIZE = "coprolite.log.bufferSize";
+    public static final String LOG_BUFFER_SPILL = "coprolite.log.bufferSpill";
+    public static final String LOG_ASYNC = "coprolite.log.async";
+    public static final String LOG_ASYNC_CAPACITY = "coprolite.log.asyncCapacity";
+    public static final String LOG_ASYNC_OVERFLOW = "coprolite.log.asyncOverflow";
     public static final String ADD_PLUGINS = "coprolite.addPlugins";
     public static final String PLUGINS_FOLDER = "coprolite.pluginsFolder";
+    public static final String PLUGIN_INDEX = "coprolite.pluginIndex";
+    public static final String PARALLEL_INIT = "coprolite.parallelInit";
     public static final String SERVER = "coprolite.server";
+    public static final String CACHE_DIR = "coprolite.cacheDir";
+    public static final String TRANSFORM_CACHE = "coprolite.transformCache";
+    public static final String CLASS_LOADER = "coprolite.classLoader";
+    public static final String BAKE = "coprolite.bake";
+    public static final String BAKED_JAR = "coprolite.bakedJar";
+    public static final String PRELOAD = "coprolite.preload";
+    public static final String CDS = "coprolite.cds";
+    public static final String STARTUP_REPORT = "coprolite.startupReport";
+    public static final String STARTUP_BUDGETS = "coprolite.startupBudgets";
 
     private SystemProperties() {
         throw new UnsupportedOperationException();
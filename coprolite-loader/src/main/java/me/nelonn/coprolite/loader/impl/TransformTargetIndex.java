@@ -0,0 +1,297 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import me.nelonn.coprolite.loader.api.CoproliteLauncher;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import me.nelonn.coprolite.loader.impl.plugin.PluginContainerImpl;
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Set of classes the transformation pipeline has to look at.
+ *
+ * <p>The index is built once at bootstrap from the {@code @Mixin} annotations of every mixin listed in the plugins'
+ * mixin configs, the access widener targets and any additional targets like the classes patched by the game
+ * transformer. Classes of the mixin packages are included as well, so Mixin can still reject attempts to load them.
+ *
+ * <p>Mixin config plugins may add mixins at runtime that can't be discovered up front. If any config declares one,
+ * or a config can't be read, the index is unbounded and matches every class. Caches of the transformer output must
+ * not be used then either, see {@link #mayUseConfigPlugins}, since a config plugin's hooks run on every
+ * transformation.
+ *
+ * <p>Mixin records the mixins applied to a class in its hierarchy bookkeeping, which the mixins of subclasses and
+ * implementors rely on to find shadowed and inherited members. Targets that other targets extend or implement have to
+ * pass through Mixin for that, see {@link #isSupertypeTarget}.
+ */
+public final class TransformTargetIndex {
+    private static final String MIXIN_DESC = "Lorg/spongepowered/asm/mixin/Mixin;";
+    private static final TransformTargetIndex UNBOUNDED = new TransformTargetIndex(Set.of(), Set.of(), new String[0], true, false);
+    private static final TransformTargetIndex CONFIG_PLUGINS = new TransformTargetIndex(Set.of(), Set.of(), new String[0], true, true);
+
+    private final Set<String> targets;
+    private final Set<String> supertypeTargets;
+    private final String[] packagePrefixes;
+    private final boolean unbounded;
+    private final boolean configPlugins;
+
+    private TransformTargetIndex(Set<String> targets, Set<String> supertypeTargets, String[] packagePrefixes, boolean unbounded, boolean configPlugins) {
+        this.targets = targets;
+        this.supertypeTargets = supertypeTargets;
+        this.packagePrefixes = packagePrefixes;
+        this.unbounded = unbounded;
+        this.configPlugins = configPlugins;
+    }
+
+    /**
+     * Builds the index for the loaded plugins.
+     *
+     * @param loader the frozen loader, access wideners must be loaded already
+     * @param additionalTargets further classes to include, binary or internal names
+     * @return the index
+     */
+    public static @NotNull TransformTargetIndex build(@NotNull CoproliteLoaderImpl loader, @NotNull Collection<String> additionalTargets) {
+        Set<String> targets = new HashSet<>();
+        Set<String> packagePrefixes = new HashSet<>();
+
+        for (String target : loader.getAccessWidener().getTargets()) {
+            targets.add(toInternalName(target));
+        }
+
+        for (String target : additionalTargets) {
+            targets.add(toInternalName(target));
+        }
+
+        for (PluginContainerImpl plugin : loader.getPluginsInternal()) {
+            for (String config : plugin.getMetadata().getMixinConfigs()) {
+                try {
+                    if (!readMixinConfig(plugin.getJarFile(), config, targets, packagePrefixes)) {
+                        Log.debug(LogCategory.MIXIN, "Mixin config %s of plugin %s uses a config plugin, transforming all classes",
+                                config, plugin.getMetadata().getId());
+                        return CONFIG_PLUGINS;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.warn(LogCategory.MIXIN, String.format("Unable to index mixin config %s of plugin %s, transforming all classes",
+                            config, plugin.getMetadata().getId()), e);
+                    return CONFIG_PLUGINS;
+                }
+            }
+        }
+
+        Set<String> supertypeTargets = findSupertypeTargets(targets);
+        Log.debug(LogCategory.MIXIN, "Indexed %d transformation target%s, %d of them extended or implemented by others",
+                targets.size(), targets.size() != 1 ? "s" : "", supertypeTargets.size());
+
+        return new TransformTargetIndex(Set.copyOf(targets), Collections.unmodifiableSet(supertypeTargets), packagePrefixes.toArray(new String[0]), false, false);
+    }
+
+    public static @NotNull TransformTargetIndex unbounded() {
+        return UNBOUNDED;
+    }
+
+    /**
+     * @param className internal name of the class
+     * @return whether the class may be changed by the transformation pipeline
+     */
+    public boolean isTarget(@NotNull String className) {
+        if (unbounded || targets.contains(className)) return true;
+
+        for (String prefix : packagePrefixes) {
+            if (className.startsWith(prefix)) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param className internal name of the class
+     * @return whether another target extends or implements the class, directly or through classes in between. Its
+     * transformation must not be served from a cache, Mixin wouldn't know the mixins applied to it otherwise
+     */
+    public boolean isSupertypeTarget(@NotNull String className) {
+        return unbounded || supertypeTargets.contains(className);
+    }
+
+    /**
+     * @return the targets other targets extend or implement, each after the ones it extends or implements itself
+     */
+    public @NotNull Set<String> getSupertypeTargets() {
+        return supertypeTargets;
+    }
+
+    public boolean isUnbounded() {
+        return unbounded;
+    }
+
+    /**
+     * @return whether a mixin config declares a config plugin or couldn't be read to tell
+     */
+    public boolean mayUseConfigPlugins() {
+        return configPlugins;
+    }
+
+    public int size() {
+        return targets.size();
+    }
+
+    /**
+     * @return false if the targets of the config can't be determined statically
+     */
+    private static boolean readMixinConfig(JarFile jar, String config, Set<String> targets, Set<String> packagePrefixes) throws IOException {
+        JsonObject json;
+        try (Reader reader = new InputStreamReader(open(jar, config), StandardCharsets.UTF_8)) {
+            json = JsonParser.parseReader(reader).getAsJsonObject();
+        }
+
+        if (json.has("plugin")) return false;
+
+        String mixinPackage = json.get("package").getAsString();
+        if (!mixinPackage.isEmpty() && !mixinPackage.endsWith(".")) mixinPackage += '.';
+        packagePrefixes.add(toInternalName(mixinPackage));
+
+        for (String key : new String[] { "mixins", "server", "client" }) {
+            JsonElement element = json.get(key);
+            if (element == null || !element.isJsonArray()) continue;
+
+            for (JsonElement mixin : (JsonArray) element) {
+                String mixinClass = toInternalName(mixinPackage + mixin.getAsString());
+                try (InputStream is = open(jar, mixinClass + ".class")) {
+                    readMixinTargets(new ClassReader(is), targets);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static void readMixinTargets(ClassReader reader, Set<String> targets) {
+        reader.accept(new ClassVisitor(CoproliteLoaderImpl.ASM_VERSION) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                if (!MIXIN_DESC.equals(descriptor)) return null;
+
+                return new AnnotationVisitor(CoproliteLoaderImpl.ASM_VERSION) {
+                    @Override
+                    public AnnotationVisitor visitArray(String name) {
+                        return new AnnotationVisitor(CoproliteLoaderImpl.ASM_VERSION) {
+                            @Override
+                            public void visit(String ignored, Object value) {
+                                if (value instanceof Type type) {
+                                    targets.add(type.getInternalName());
+                                } else if (value instanceof String target) {
+                                    targets.add(toInternalName(target));
+                                }
+                            }
+                        };
+                    }
+                };
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    private static Set<String> findSupertypeTargets(Set<String> targets) {
+        Map<String, String[]> supertypes = new HashMap<>(); // direct supertypes of each class read
+        Set<String> found = new HashSet<>();
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+
+        for (String target : targets) {
+            visited.clear();
+            queue.addAll(Arrays.asList(getSupertypes(target, supertypes)));
+
+            while (!queue.isEmpty()) {
+                String type = queue.poll();
+                if (!visited.add(type)) continue;
+
+                if (targets.contains(type)) found.add(type);
+                queue.addAll(Arrays.asList(getSupertypes(type, supertypes)));
+            }
+        }
+
+        Set<String> ret = new LinkedHashSet<>();
+        visited.clear();
+
+        for (String type : found) {
+            addSupertypesFirst(type, found, supertypes, visited, ret);
+        }
+
+        return ret;
+    }
+
+    private static void addSupertypesFirst(String type, Set<String> found, Map<String, String[]> supertypes, Set<String> visited, Set<String> out) {
+        if (!visited.add(type)) return;
+
+        for (String supertype : supertypes.getOrDefault(type, new String[0])) {
+            addSupertypesFirst(supertype, found, supertypes, visited, out);
+        }
+
+        if (found.contains(type)) out.add(type);
+    }
+
+    private static String[] getSupertypes(String className, Map<String, String[]> cache) {
+        String[] ret = cache.get(className);
+        if (ret != null) return ret;
+
+        ret = new String[0];
+
+        if (!className.startsWith("java/")) { // the JDK's hierarchy holds no targets
+            try {
+                byte[] bytes = CoproliteLauncher.getInstance().getClassByteArray(className, false);
+
+                if (bytes != null) {
+                    ClassReader reader = new ClassReader(bytes);
+                    String superName = reader.getSuperName();
+                    String[] interfaces = reader.getInterfaces();
+                    ret = Arrays.copyOf(interfaces, interfaces.length + (superName != null ? 1 : 0));
+                    if (superName != null) ret[interfaces.length] = superName;
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.debug(LogCategory.MIXIN, "Unable to read the supertypes of %s: %s", className, e);
+            }
+        }
+
+        cache.put(className, ret);
+        return ret;
+    }
+
+    private static InputStream open(JarFile jar, String name) throws IOException {
+        JarEntry entry = jar.getJarEntry(name);
+        if (entry == null) throw new IOException("Missing " + name + " in " + jar.getName());
+        return jar.getInputStream(entry);
+    }
+
+    private static String toInternalName(String name) {
+        return name.replace('.', '/');
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl;
+
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent in each stage of the transformation pipeline, for a single class and summed up over all classes.
+ */
+public final class TransformTimings {
+    private static final Stage[] STAGES = Stage.values();
+    private static final LongAdder[] TOTALS = new LongAdder[STAGES.length];
+    private static final LongAdder CLASSES = new LongAdder();
+    private static final LongAdder BYTES = new LongAdder();
+
+    static {
+        for (int i = 0; i < TOTALS.length; i++) {
+            TOTALS[i] = new LongAdder();
+        }
+    }
+
+    private final long[] nanos = new long[STAGES.length];
+    private int mixinsApplied;
+
+    public TransformTimings() {
+        CLASSES.increment();
+    }
+
+    /**
+     * Records the time since {@code start} for a stage.
+     *
+     * @param stage the finished stage
+     * @param start {@link System#nanoTime()} at the start of the stage
+     * @return the current {@link System#nanoTime()}, the start of the next stage
+     */
+    public long record(@NotNull Stage stage, long start) {
+        long now = System.nanoTime();
+        nanos[stage.ordinal()] += now - start;
+        TOTALS[stage.ordinal()].add(now - start);
+        return now;
+    }
+
+    /**
+     * Records the size of the class going through the pipeline.
+     *
+     * @param size size of the class file in bytes
+     */
+    public void recordInput(int size) {
+        BYTES.add(size);
+    }
+
+    public long get(@NotNull Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    /**
+     * @return the number of mixins applied to the class, 0 if none were applied
+     */
+    public int getMixinsApplied() {
+        return mixinsApplied;
+    }
+
+    public void setMixinsApplied(int mixinsApplied) {
+        this.mixinsApplied = mixinsApplied;
+    }
+
+    public static long getTotal(@NotNull Stage stage) {
+        return TOTALS[stage.ordinal()].sum();
+    }
+
+    public static long getClassCount() {
+        return CLASSES.sum();
+    }
+
+    /**
+     * @return the summed up size of the classes going through the pipeline, in bytes
+     */
+    public static long getTotalBytes() {
+        return BYTES.sum();
+    }
+
+    public static void logSummary() {
+        StringBuilder sb = new StringBuilder();
+        long total = 0;
+
+        for (Stage stage : STAGES) {
+            long nanos = getTotal(stage);
+            total += nanos;
+            if (!sb.isEmpty()) sb.append(", ");
+            sb.append(String.format("%s %.1f ms", stage.getName(), nanos * 1e-6));
+        }
+
+        Log.info(LogCategory.LAUNCHER, "Transformed %d class%s (%d KiB) in %.1f ms (%s)", getClassCount(), getClassCount() != 1 ? "es" : "",
+                getTotalBytes() / 1024, total * 1e-6, sb);
+    }
+
+    public enum Stage {
+        GAME_PATCH("game patch"),
+        RELOCATE("relocate"),
+        READ("read + access widener"),
+        MIXIN("mixin"),
+        WRITE("write");
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        public @NotNull String getName() {
+            return name;
+        }
+    }
+}
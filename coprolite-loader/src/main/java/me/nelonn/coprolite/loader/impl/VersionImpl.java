@@ -52,6 +52,6 @@ public class VersionImpl implements Version {
 
     @Override
     public @NotNull String getFriendlyString() {
-        return null;
+        return string;
     }
 }
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl.log;
+
+import me.nelonn.coprolite.loader.impl.SystemProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * LogHandler passing messages to another handler on a single writer thread, so formatting and I/O don't hold up the
+ * logging threads.
+ *
+ * <p>Messages go through a bounded ring buffer, producers claim slots with a CAS on the tail and publish them through a
+ * per-slot sequence number. The writer consumes the slots in the order they were claimed, so messages of a thread stay
+ * in order. When the buffer is full the {@link OverflowPolicy} decides whether to wait or drop, dropped messages are
+ * counted and reported once there is space again.
+ *
+ * <p>{@link #flush()} writes everything logged so far on the calling thread, it runs on close and on shutdown. Messages
+ * logged while passing on messages, or after closing, are passed on directly.
+ */
+public final class AsyncLogHandler implements LogHandler {
+	private static final int DEFAULT_CAPACITY = 8192;
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long MIN_FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+	private static final long MAX_FULL_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long DROPPED = -1;
+	private static final long CLOSED = -2;
+
+	private volatile LogHandler delegate;
+	private final OverflowPolicy overflowPolicy;
+
+	private final Entry[] entries;
+	private final AtomicLongArray sequences; // per slot: position + 1 once published, position + capacity once consumed
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private long head; // guarded by consumeLock
+	private final ReentrantLock consumeLock = new ReentrantLock();
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread writer;
+	private final Thread shutdownHook;
+	private volatile boolean writerParked;
+	private volatile boolean closed;
+
+	public AsyncLogHandler(@NotNull LogHandler delegate, int capacity, @NotNull OverflowPolicy overflowPolicy) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+
+		this.delegate = delegate;
+		this.overflowPolicy = overflowPolicy;
+		this.entries = new Entry[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		this.mask = capacity - 1;
+
+		for (int i = 0; i < capacity; i++) {
+			entries[i] = new Entry();
+			sequences.set(i, i);
+		}
+
+		writer = new Thread(this::runWriter, "Coprolite log writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		shutdownHook = new Thread(this::flush, "AsyncLogHandler shutdown hook");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Wraps the handler if {@code -Dcoprolite.log.async=true}.
+	 */
+	static @NotNull LogHandler wrapIfEnabled(@NotNull LogHandler handler) {
+		if (!Boolean.getBoolean(SystemProperties.LOG_ASYNC)) return handler;
+
+		int capacity = Integer.getInteger(SystemProperties.LOG_ASYNC_CAPACITY, DEFAULT_CAPACITY);
+		String policyName = System.getProperty(SystemProperties.LOG_ASYNC_OVERFLOW, OverflowPolicy.BLOCK.name());
+		OverflowPolicy policy;
+
+		try {
+			policy = OverflowPolicy.valueOf(policyName.toUpperCase(Locale.ENGLISH).replace('-', '_'));
+		} catch (IllegalArgumentException e) { // runs while Log initializes, so it must not throw
+			policy = OverflowPolicy.BLOCK;
+			handler.log(System.currentTimeMillis(), LogLevel.WARN, LogCategory.LOG, String.format("Unknown %s value '%s', using %s, expected one of %s",
+					SystemProperties.LOG_ASYNC_OVERFLOW, policyName, policy, Arrays.toString(OverflowPolicy.values())), null, false, false);
+		}
+
+		return new AsyncLogHandler(handler, Integer.highestOneBit(Math.max(2, capacity)), policy);
+	}
+
+	@NotNull LogHandler getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * Passes on the messages logged so far to the current delegate, then runs {@code handover} with it and switches to
+	 * {@code delegate}. Nothing is passed on in between, messages logged meanwhile wait in the buffer for the new
+	 * delegate and messages logged by {@code handover} itself go to the current delegate directly.
+	 */
+	void setDelegate(@NotNull LogHandler delegate, @NotNull Consumer<LogHandler> handover) {
+		consumeLock.lock();
+
+		try {
+			drain();
+			handover.accept(this.delegate);
+			this.delegate = delegate;
+		} finally {
+			consumeLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean shouldLog(LogLevel level, LogCategory category) {
+		return delegate.shouldLog(level, category);
+	}
+
+	@Override
+	public void log(long time, LogLevel level, LogCategory category, String msg, Throwable exc, boolean fromReplay, boolean wasSuppressed) {
+		if (closed || Thread.currentThread() == writer || consumeLock.isHeldByCurrentThread()) {
+			delegate.log(time, level, category, msg, exc, fromReplay, wasSuppressed);
+			return;
+		}
+
+		boolean mayDrop = overflowPolicy == OverflowPolicy.DROP
+				|| overflowPolicy == OverflowPolicy.DROP_LOW_LEVELS && level.isLessThan(LogLevel.WARN);
+		long pos = claim(mayDrop);
+
+		if (pos == DROPPED) {
+			dropped.incrementAndGet();
+			return;
+		} else if (pos == CLOSED) {
+			delegate.log(time, level, category, msg, exc, fromReplay, wasSuppressed);
+			return;
+		}
+
+		int index = (int) pos & mask;
+		Entry entry = entries[index];
+		entry.time = time;
+		entry.level = level;
+		entry.category = category;
+		entry.msg = msg;
+		entry.exc = exc;
+		entry.fromReplay = fromReplay;
+		entry.wasSuppressed = wasSuppressed;
+		sequences.set(index, pos + 1); // publish
+
+		if (closed) {
+			flush(); // raced with close
+		} else if (writerParked) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * @return the claimed position, {@link #DROPPED} if the buffer is full and the message may be dropped or
+	 * {@link #CLOSED} if the handler was closed while waiting for space
+	 */
+	private long claim(boolean mayDrop) {
+		long parkNanos = MIN_FULL_PARK_NANOS;
+
+		for (;;) {
+			long pos = tail.get();
+			long seq = sequences.get((int) pos & mask);
+
+			if (seq == pos) {
+				if (tail.compareAndSet(pos, pos + 1)) return pos;
+			} else if (seq < pos) { // full, the slot still holds the message one lap behind
+				if (mayDrop) return DROPPED;
+				if (closed) return CLOSED;
+				if (writerParked) LockSupport.unpark(writer);
+				LockSupport.parkNanos(this, parkNanos); // back off, waiters don't need to be woken up by the writer
+				parkNanos = Math.min(parkNanos * 2, MAX_FULL_PARK_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Passes on all messages logged so far, on the calling thread if the writer isn't on it already.
+	 */
+	public void flush() {
+		consumeLock.lock();
+
+		try {
+			drain();
+		} finally {
+			consumeLock.unlock();
+		}
+	}
+
+	private void runWriter() {
+		while (!closed) {
+			boolean drained;
+			consumeLock.lock();
+
+			try {
+				drained = drain() == 0;
+			} finally {
+				consumeLock.unlock();
+			}
+
+			if (drained) {
+				writerParked = true;
+				if (!hasPublished()) LockSupport.parkNanos(this, MAX_PARK_NANOS);
+				writerParked = false;
+			}
+		}
+	}
+
+	private boolean hasPublished() {
+		long head;
+		consumeLock.lock();
+
+		try {
+			head = this.head;
+		} finally {
+			consumeLock.unlock();
+		}
+
+		return sequences.get((int) head & mask) == head + 1;
+	}
+
+	/**
+	 * @return the number of messages passed on
+	 */
+	private int drain() {
+		int count = 0;
+		long head = this.head;
+
+		for (;;) {
+			int index = (int) head & mask;
+			if (sequences.get(index) != head + 1) break; // not published yet
+
+			Entry entry = entries[index];
+			LogLevel level = entry.level;
+			LogCategory category = entry.category;
+			String msg = entry.msg;
+			Throwable exc = entry.exc;
+			long time = entry.time;
+			boolean fromReplay = entry.fromReplay;
+			boolean wasSuppressed = entry.wasSuppressed;
+			entry.clear();
+			sequences.set(index, head + entries.length); // free the slot for the next lap
+			this.head = ++head;
+			count++;
+
+			try {
+				delegate.log(time, level, category, msg, exc, fromReplay, wasSuppressed);
+			} catch (Throwable t) {
+				System.err.printf("Error passing on log message: %s%n", t);
+			}
+		}
+
+		long dropped = this.dropped.getAndSet(0);
+		if (dropped > 0) {
+			delegate.log(System.currentTimeMillis(), LogLevel.WARN, LogCategory.LOG, String.format("Dropped %d log message%s, the log buffer of %d messages was full", dropped, dropped != 1 ? "s" : "", entries.length), null, false, false);
+		}
+
+		return count;
+	}
+
+	@Override
+	public void close() {
+		if (closed) return;
+
+		closed = true;
+		LockSupport.unpark(writer);
+		flush();
+		delegate.close();
+
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// ignore
+		}
+	}
+
+	public enum OverflowPolicy {
+		/**
+		 * Wait for space, no message is lost.
+		 */
+		BLOCK,
+		/**
+		 * Drop messages below {@link LogLevel#WARN}, wait for space for the others.
+		 */
+		DROP_LOW_LEVELS,
+		/**
+		 * Drop any message.
+		 */
+		DROP
+	}
+
+	private static final class Entry {
+		long time;
+		LogLevel level;
+		LogCategory category;
+		String msg;
+		Throwable exc;
+		boolean fromReplay;
+		boolean wasSuppressed;
+
+		void clear() {
+			category = null;
+			msg = null;
+			exc = null;
+		}
+	}
+}
@@ -20,13 +20,12 @@ import me.nelonn.coprolite.loader.impl.SystemProperties;
 import me.nelonn.coprolite.loader.impl.LoaderUtil;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Default LogHandler until Log is initialized.
@@ -36,13 +35,15 @@ import java.util.List;
  * - log to stderr for LogLevel.ERROR
  * - option to relay previous log output to another log handler if requested through Log.init
  * - dumps previous log output to a log file if not closed/relayed yet
+ *
+ * <p>The previous log output is kept in a {@link ReplayBuffer} with a memory budget.
  */
 final class BuiltinLogHandler extends ConsoleLogHandler {
 	private static final String DEFAULT_LOG_FILE = "coprolite.log";
 
 	private boolean configured;
 	private boolean enableOutput;
-	private List<ReplayEntry> buffer = new ArrayList<>();
+	private ReplayBuffer buffer = ReplayBuffer.create();
 	private final Thread shutdownHook;
 
 	BuiltinLogHandler() {
@@ -65,7 +66,7 @@ final class BuiltinLogHandler extends ConsoleLogHandler {
 			}
 
 			if (buffer != null) {
-				buffer.add(new ReplayEntry(time, level, category, msg, exc));
+				buffer.add(time, level, category, msg, exc);
 			}
 		}
 
@@ -76,17 +77,19 @@ final class BuiltinLogHandler extends ConsoleLogHandler {
 		if (enableOutput) return;
 
 		if (buffer != null) {
-			for (int i = 0; i < buffer.size(); i++) { // index based loop to tolerate replay producing log output by itself
-				ReplayEntry entry = buffer.get(i);
-				super.log(entry.time, entry.level, entry.category, entry.msg, entry.exc, true, true);
-			}
+			buffer.forEach((time, level, category, msg) -> super.log(time, level, category, msg, null, true, true)); // tolerates replay producing log output by itself
 		}
 
 		enableOutput = true;
 	}
 
 	@Override
-	public void close() {
+	public synchronized void close() {
+		if (buffer != null) {
+			buffer.close();
+			buffer = null;
+		}
+
 		Thread shutdownHook = this.shutdownHook;
 
 		if (shutdownHook != null) {
@@ -108,8 +111,9 @@ final class BuiltinLogHandler extends ConsoleLogHandler {
 		}
 
 		if (buffer) {
-			if (this.buffer == null) this.buffer = new ArrayList<>();
-		} else {
+			if (this.buffer == null) this.buffer = ReplayBuffer.create();
+		} else if (this.buffer != null) {
+			this.buffer.close();
 			this.buffer = null;
 		}
 
@@ -123,30 +127,12 @@ final class BuiltinLogHandler extends ConsoleLogHandler {
 	synchronized boolean replay(LogHandler target) {
 		if (buffer == null || buffer.isEmpty()) return false;
 
-		for (int i = 0; i < buffer.size(); i++) { // index based loop to tolerate replay producing log output by itself
-			ReplayEntry entry = buffer.get(i);
-			target.log(entry.time, entry.level, entry.category, entry.msg, entry.exc, true, !enableOutput);
-		}
+		boolean wasSuppressed = !enableOutput;
+		buffer.forEach((time, level, category, msg) -> target.log(time, level, category, msg, null, true, wasSuppressed));
 
 		return true;
 	}
 
-	private static final class ReplayEntry {
-		ReplayEntry(long time, LogLevel level, LogCategory category, String msg, Throwable exc) {
-			this.time = time;
-			this.level = level;
-			this.category = category;
-			this.msg = msg;
-			this.exc = exc;
-		}
-
-		final long time;
-		final LogLevel level;
-		final LogCategory category;
-		final String msg;
-		final Throwable exc;
-	}
-
 	private final class ShutdownHook extends Thread {
 		ShutdownHook() {
 			super("BuiltinLogHandler shutdown hook");
@@ -154,16 +140,15 @@ final class BuiltinLogHandler extends ConsoleLogHandler {
 
 		@Override
 		public void run() {
+			Log.flush(); // messages queued by an AsyncLogHandler in front of this one
+
 			synchronized (BuiltinLogHandler.this) {
 				if (buffer == null || buffer.isEmpty()) return;
 
 				if (!enableOutput) {
 					enableOutput = true;
 
-					for (int i = 0; i < buffer.size(); i++) { // index based loop to tolerate replay producing log output by itself
-						ReplayEntry entry = buffer.get(i);
-						BuiltinLogHandler.super.log(entry.time, entry.level, entry.category, entry.msg, entry.exc, true, true);
-					}
+					buffer.forEach((time, level, category, msg) -> BuiltinLogHandler.super.log(time, level, category, msg, null, true, true));
 				}
 
 				String fileName = System.getProperty(SystemProperties.LOG_FILE, DEFAULT_LOG_FILE);
@@ -174,12 +159,15 @@ final class BuiltinLogHandler extends ConsoleLogHandler {
 					Files.createDirectories(file.getParent());
 
 					try (Writer writer = Files.newBufferedWriter(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE)) {
-						for (int i = 0; i < buffer.size(); i++) { // index based loop to tolerate replay producing log output by itself
-							ReplayEntry entry = buffer.get(i);
-							writer.write(formatLog(entry.time, entry.level, entry.category, entry.msg, entry.exc));
-						}
+						buffer.forEach((time, level, category, msg) -> {
+							try {
+								writer.write(formatLog(time, level, category, msg, null));
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						});
 					}
-				} catch (IOException e) {
+				} catch (IOException | UncheckedIOException e) {
 					System.err.printf("Error saving log: %s", e);
 				}
 			}
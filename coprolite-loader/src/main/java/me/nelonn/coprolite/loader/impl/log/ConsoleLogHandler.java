@@ -16,9 +16,6 @@
 
 package me.nelonn.coprolite.loader.impl.log;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-
 public class ConsoleLogHandler implements LogHandler {
 	private static final LogLevel MIN_STDERR_LEVEL = LogLevel.ERROR;
 	private static final LogLevel MIN_STDOUT_LEVEL = LogLevel.getDefault();
@@ -35,20 +32,7 @@ public class ConsoleLogHandler implements LogHandler {
 	}
 
 	protected static String formatLog(long time, LogLevel level, LogCategory category, String msg, Throwable exc) {
-		String ret = String.format("[%tT] [%s] [%s/%s]: %s%n", time, level.name(), category.context, category.name, msg);
-
-		if (exc != null) {
-			StringWriter writer = new StringWriter(ret.length() + 500);
-
-			try (PrintWriter pw = new PrintWriter(writer, false)) {
-				pw.print(ret);
-				exc.printStackTrace(pw);
-			}
-
-			ret = writer.toString();
-		}
-
-		return ret;
+		return LogFormatter.formatLine(time, level, category, msg, exc);
 	}
 
 	@Override
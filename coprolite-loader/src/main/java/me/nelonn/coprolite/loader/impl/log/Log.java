@@ -25,11 +25,23 @@ public final class Log {
     public static final String NAME = "Coprolite";
     private static final boolean CHECK_FOR_BRACKETS = true;
 
-    private static LogHandler handler = new BuiltinLogHandler();
+    private static LogHandler handler = AsyncLogHandler.wrapIfEnabled(new BuiltinLogHandler());
 
     public static void init(@NotNull LogHandler handler) {
         LogHandler oldHandler = Log.handler;
 
+        if (oldHandler instanceof AsyncLogHandler asyncHandler) { // keep writing asynchronously, to the new handler
+            LogHandler oldDelegate = asyncHandler.getDelegate();
+            asyncHandler.setDelegate(handler, delegate -> { // the buffered messages go out before anything queued meanwhile
+                if (delegate instanceof BuiltinLogHandler) {
+                    ((BuiltinLogHandler) delegate).replay(handler);
+                }
+            });
+
+            oldDelegate.close();
+            return;
+        }
+
         if (oldHandler instanceof BuiltinLogHandler) {
             ((BuiltinLogHandler) oldHandler).replay(handler);
         }
@@ -38,6 +50,13 @@ public final class Log {
         oldHandler.close();
     }
 
+    /**
+     * Writes out messages still queued by an asynchronous handler.
+     */
+    public static void flush() {
+        if (handler instanceof AsyncLogHandler asyncHandler) asyncHandler.flush();
+    }
+
     /**
      * Configure builtin log handler.
      *
@@ -45,10 +64,10 @@ public final class Log {
      * @param output whether to output log messages directly
      */
     public static void configureBuiltin(boolean buffer, boolean output) {
-        LogHandler handler = Log.handler;
+        BuiltinLogHandler handler = getBuiltin();
 
-        if (handler instanceof BuiltinLogHandler) {
-            ((BuiltinLogHandler) handler).configure(buffer, output);
+        if (handler != null) {
+            handler.configure(buffer, output);
         }
     }
 
@@ -56,11 +75,22 @@ public final class Log {
      * Finish configuring builtin log handler, using defaults if unconfigured.
      */
     public static void finishBuiltinConfig() {
+        BuiltinLogHandler handler = getBuiltin();
+
+        if (handler != null) {
+            handler.finishConfig();
+        }
+    }
+
+    private static BuiltinLogHandler getBuiltin() {
         LogHandler handler = Log.handler;
 
-        if (handler instanceof BuiltinLogHandler) {
-            ((BuiltinLogHandler) handler).finishConfig();
+        if (handler instanceof AsyncLogHandler asyncHandler) {
+            asyncHandler.flush(); // configuring may replay the buffer, which has to be complete
+            handler = asyncHandler.getDelegate();
         }
+
+        return handler instanceof BuiltinLogHandler ? (BuiltinLogHandler) handler : null;
     }
 
     public static void error(LogCategory category, String format, Object... args) {
@@ -153,7 +183,7 @@ public final class Log {
             Object lastArg = args[args.length - 1];
             Object[] newArgs;
 
-            if (lastArg instanceof Throwable && getRequiredArgs(format) < args.length) {
+            if (lastArg instanceof Throwable && LogFormatter.getRequiredArgs(format) < args.length) {
                 exc = (Throwable) lastArg;
                 newArgs = Arrays.copyOf(args, args.length - 1);
             } else {
@@ -161,10 +191,10 @@ public final class Log {
                 newArgs = args;
             }
 
-            assert getRequiredArgs(format) == newArgs.length;
+            assert LogFormatter.getRequiredArgs(format) == newArgs.length;
 
             try {
-                msg = String.format(format, newArgs);
+                msg = LogFormatter.formatMessage(format, newArgs);
             } catch (IllegalFormatException e) {
                 msg = "Format error: fmt=["+format+"] args="+Arrays.toString(args);
                 warn(LogCategory.LOG, "Invalid format string.", e);
@@ -174,47 +204,6 @@ public final class Log {
         log(handler, level, category, msg, exc);
     }
 
-    private static int getRequiredArgs(String format) {
-        int ret = 0;
-        int minRet = 0;
-        boolean wasPct = false;
-
-        for (int i = 0, max = format.length(); i < max; i++) {
-            char c = format.charAt(i);
-
-            if (c == '%') {
-                wasPct = !wasPct;
-            } else if (wasPct) {
-                wasPct = false;
-
-                if (c == 'n' || c == '<') { // not %n or %<x
-                    continue;
-                }
-
-                if (c >= '0' && c <= '9') { // abs indexing %12$
-                    int start = i;
-
-                    while (i + 1 < format.length()
-                            && (c = format.charAt(i + 1)) >= '0' && c <= '9') {
-                        i++;
-                    }
-
-                    if (i + 1 < format.length() && format.charAt(i + 1) == '$') {
-                        i++;
-                        minRet = Math.max(minRet, Integer.parseInt(format.substring(start, i)) + 1);
-                        continue;
-                    } else {
-                        i = start;
-                    }
-                }
-
-                ret++;
-            }
-        }
-
-        return Math.max(ret, minRet);
-    }
-
     private static void log(LogHandler handler, LogLevel level, LogCategory category, String msg, Throwable exc) {
         handler.log(System.currentTimeMillis(), level, category, msg.trim(), exc, false, false);
     }
@@ -17,6 +17,7 @@
 package me.nelonn.coprolite.loader.impl.log;
 
 public final class LogCategory {
+	public static final LogCategory CACHE = create("Cache");
 	public static final LogCategory DISCOVERY = create("Discovery");
 	public static final LogCategory ENTRYPOINT = create("Entrypoint");
 	public static final LogCategory GAME_PATCH = create("GamePatch");
@@ -27,12 +28,17 @@ public final class LogCategory {
 	public static final LogCategory MAPPINGS = create("Mappings");
 	public static final LogCategory METADATA = create("Metadata");
 	public static final LogCategory MIXIN = create("Mixin");
+	public static final LogCategory RESOLUTION = create("Resolution");
 	public static final LogCategory TEST = create("Test");
 
 	public static final String SEPARATOR = "/";
 
 	public final String context;
 	public final String name;
+	/**
+	 * {@code [context/name]: } as written before each message by the console handlers.
+	 */
+	public final String prefix;
 	public Object data;
 
 	public static LogCategory create(String... names) {
@@ -49,6 +55,7 @@ public final class LogCategory {
 	private LogCategory(String context, String[] names) {
 		this.context = context;
 		this.name = String.join(SEPARATOR, names);
+		this.prefix = "[" + context + SEPARATOR + name + "]: ";
 	}
 
 	@Override
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl.log;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Formatting of log lines and log messages without {@link String#format}.
+ *
+ * <p>Lines are built in a reusable per-thread StringBuilder from the timestamp prefix, which is rendered once per
+ * second, the level prefix and {@link LogCategory#prefix}. Message formats are compiled once into their literal parts
+ * and arguments, plain {@code %s} and {@code %d} are substituted directly, any other conversion falls back to
+ * String.format with the same output.
+ */
+final class LogFormatter {
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+	private static final String[] LEVEL_PREFIXES = new String[LogLevel.values().length];
+	private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+	private static final int MAX_FORMATS = 1024;
+
+	private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+	private static final Map<String, Format> FORMATS = new ConcurrentHashMap<>();
+	private static volatile Timestamp timestamp = new Timestamp(Long.MIN_VALUE, null);
+	private static volatile Locale digitsLocale;
+	private static volatile boolean asciiDigits;
+
+	static {
+		for (LogLevel level : LogLevel.values()) {
+			LEVEL_PREFIXES[level.ordinal()] = "[" + level.name() + "] ";
+		}
+	}
+
+	private LogFormatter() {
+	}
+
+	/**
+	 * Same output as {@code String.format("[%tT] [%s] [%s/%s]: %s%n", ...)} followed by the stack trace.
+	 */
+	static String formatLine(long time, LogLevel level, LogCategory category, String msg, Throwable exc) {
+		Buffer buffer = BUFFER.get();
+		StringBuilder sb = buffer.acquire();
+
+		try {
+			sb.append(getTimestamp(time)).append(LEVEL_PREFIXES[level.ordinal()]).append(category.prefix).append(msg).append(LINE_SEPARATOR);
+
+			if (exc != null) {
+				try (PrintWriter pw = new PrintWriter(new StringBuilderWriter(sb), false)) {
+					exc.printStackTrace(pw);
+				}
+			}
+
+			return sb.toString();
+		} finally {
+			buffer.release(sb);
+		}
+	}
+
+	/**
+	 * @return the number of arguments the format consumes
+	 */
+	static int getRequiredArgs(String format) {
+		return compile(format).requiredArgs;
+	}
+
+	/**
+	 * Same output as {@link String#format(String, Object...)}.
+	 */
+	static String formatMessage(String format, Object[] args) {
+		Format compiled = compile(format);
+		if (compiled.conversions == null || args.length < compiled.requiredArgs || !supportsArgs(compiled, args)) return String.format(format, args);
+
+		Buffer buffer = BUFFER.get();
+		StringBuilder sb = buffer.acquire();
+
+		try {
+			for (int i = 0; i < compiled.conversions.length; i++) {
+				sb.append(compiled.literals[i]);
+				Object arg = args[i];
+
+				if (compiled.conversions[i] == 's') {
+					sb.append(arg);
+				} else if (arg instanceof Long) {
+					sb.append((long) (Long) arg);
+				} else {
+					sb.append(((Number) arg).intValue());
+				}
+			}
+
+			return sb.append(compiled.literals[compiled.conversions.length]).toString();
+		} finally {
+			buffer.release(sb);
+		}
+	}
+
+	private static boolean supportsArgs(Format format, Object[] args) {
+		for (int i = 0; i < format.conversions.length; i++) {
+			Object arg = args[i];
+
+			if (format.conversions[i] == 's') {
+				if (arg instanceof Formattable) return false;
+			} else if (!(arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte) || !hasAsciiDigits()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean hasAsciiDigits() {
+		Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+
+		if (locale != digitsLocale) {
+			asciiDigits = DecimalFormatSymbols.getInstance(locale).getZeroDigit() == '0';
+			digitsLocale = locale;
+		}
+
+		return asciiDigits;
+	}
+
+	private static String getTimestamp(long time) {
+		long second = Math.floorDiv(time, 1000);
+		Timestamp ret = timestamp;
+		if (ret.second == second) return ret.prefix;
+
+		long local = Math.floorMod(Math.floorDiv(time + TimeZone.getDefault().getOffset(time), 1000), 86400);
+		int hours = (int) (local / 3600);
+		int minutes = (int) (local / 60 % 60);
+		int seconds = (int) (local % 60);
+		char[] prefix = { '[', digit(hours / 10), digit(hours % 10), ':', digit(minutes / 10), digit(minutes % 10), ':', digit(seconds / 10), digit(seconds % 10), ']', ' ' };
+
+		timestamp = ret = new Timestamp(second, new String(prefix));
+		return ret.prefix;
+	}
+
+	private static char digit(int value) {
+		return (char) ('0' + value);
+	}
+
+	private static Format compile(String format) {
+		Format ret = FORMATS.get(format);
+		if (ret != null) return ret;
+
+		ret = Format.compile(format);
+		if (FORMATS.size() < MAX_FORMATS) FORMATS.put(format, ret);
+
+		return ret;
+	}
+
+	/**
+	 * @param literals the text before each conversion and after the last one
+	 * @param conversions {@code 's'} or {@code 'd'} for each argument, null if the format needs String.format
+	 */
+	private record Format(String[] literals, char[] conversions, int requiredArgs) {
+		static Format compile(String format) {
+			StringBuilder literal = new StringBuilder(format.length());
+			List<String> literals = new ArrayList<>();
+			StringBuilder conversions = new StringBuilder();
+
+			for (int i = 0, max = format.length(); i < max; i++) {
+				char c = format.charAt(i);
+
+				if (c != '%') {
+					literal.append(c);
+					continue;
+				}
+
+				char next = i + 1 < max ? format.charAt(i + 1) : 0;
+				i++;
+
+				switch (next) {
+				case '%' -> literal.append('%');
+				case 'n' -> literal.append(LINE_SEPARATOR);
+				case 's', 'd' -> {
+					literals.add(literal.toString());
+					literal.setLength(0);
+					conversions.append(next);
+				}
+				default -> { // flags, width, indexing or another conversion
+					return new Format(null, null, countRequiredArgs(format));
+				}
+				}
+			}
+
+			literals.add(literal.toString());
+			return new Format(literals.toArray(new String[0]), conversions.toString().toCharArray(), conversions.length());
+		}
+
+		private static int countRequiredArgs(String format) {
+			int ret = 0;
+			int minRet = 0;
+			boolean wasPct = false;
+
+			for (int i = 0, max = format.length(); i < max; i++) {
+				char c = format.charAt(i);
+
+				if (c == '%') {
+					wasPct = !wasPct;
+				} else if (wasPct) {
+					wasPct = false;
+
+					if (c == 'n' || c == '<') { // not %n or %<x
+						continue;
+					}
+
+					if (c >= '0' && c <= '9') { // abs indexing %12$
+						int start = i;
+
+						while (i + 1 < format.length()
+								&& (c = format.charAt(i + 1)) >= '0' && c <= '9') {
+							i++;
+						}
+
+						if (i + 1 < format.length() && format.charAt(i + 1) == '$') {
+							i++;
+							minRet = Math.max(minRet, Integer.parseInt(format.substring(start, i)) + 1);
+							continue;
+						} else {
+							i = start;
+						}
+					}
+
+					ret++;
+				}
+			}
+
+			return Math.max(ret, minRet);
+		}
+	}
+
+	private record Timestamp(long second, String prefix) { }
+
+	/**
+	 * The per-thread StringBuilder, a nested use such as an argument's toString logging gets a fresh one.
+	 */
+	private static final class Buffer {
+		private final StringBuilder sb = new StringBuilder(256);
+		private boolean inUse;
+
+		StringBuilder acquire() {
+			if (inUse) return new StringBuilder(256);
+
+			inUse = true;
+			return sb;
+		}
+
+		void release(StringBuilder sb) {
+			if (sb != this.sb) return;
+
+			if (sb.capacity() > MAX_RETAINED_CAPACITY) { // don't keep a huge stack trace's buffer around
+				sb.setLength(0);
+				sb.trimToSize();
+				sb.ensureCapacity(256);
+			} else {
+				sb.setLength(0);
+			}
+
+			inUse = false;
+		}
+	}
+
+	private static final class StringBuilderWriter extends Writer {
+		private final StringBuilder sb;
+
+		StringBuilderWriter(StringBuilder sb) {
+			this.sb = sb;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			sb.append(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			sb.append(str, off, off + len);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl.log;
+
+import me.nelonn.coprolite.loader.impl.SystemProperties;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Log messages kept by {@link BuiltinLogHandler} for replaying, within a memory budget.
+ *
+ * <p>Exceptions are rendered into the message when added, so no Throwable and the objects it references stay alive.
+ * Once the retained messages exceed the budget the oldest ones are spilled to a temporary file, or discarded if
+ * spilling is disabled or fails. {@link #forEach} streams the spilled messages back before the retained ones.
+ *
+ * <p>Not thread safe, the handler guards it by its own lock.
+ */
+final class ReplayBuffer {
+	private static final long DEFAULT_BUDGET = 8L * 1024 * 1024;
+	private static final int ENTRY_OVERHEAD = 64;
+	private static final int MIN_COMPACT = 1024;
+
+	private final long budget;
+	private boolean spill;
+
+	private final List<Entry> entries = new ArrayList<>();
+	private int start; // first retained entry in entries
+	private long bytes;
+
+	private long discarded;
+	private long spilled;
+	private Path spillFile;
+	private DataOutputStream spillOut;
+	private final List<LogCategory> categories = new ArrayList<>();
+	private final Map<LogCategory, Integer> categoryIds = new IdentityHashMap<>();
+
+	ReplayBuffer(long budget, boolean spill) {
+		this.budget = budget;
+		this.spill = spill;
+	}
+
+	/**
+	 * Creates a buffer with the budget of {@code -Dcoprolite.log.bufferSize} bytes, spilling unless
+	 * {@code -Dcoprolite.log.bufferSpill=false}.
+	 */
+	static ReplayBuffer create() {
+		return new ReplayBuffer(Long.getLong(SystemProperties.LOG_BUFFER_SIZE, DEFAULT_BUDGET),
+				Boolean.parseBoolean(System.getProperty(SystemProperties.LOG_BUFFER_SPILL, "true")));
+	}
+
+	void add(long time, LogLevel level, LogCategory category, String msg, Throwable exc) {
+		if (exc != null) msg = render(msg, exc);
+
+		Entry entry = new Entry(time, level, category, msg);
+		entries.add(entry);
+		bytes += entry.size();
+
+		while (bytes > budget && start < entries.size()) {
+			Entry oldest = entries.set(start++, null);
+			bytes -= oldest.size();
+			evict(oldest);
+		}
+
+		if (start >= MIN_COMPACT && start >= entries.size() / 2) {
+			entries.subList(0, start).clear();
+			start = 0;
+		}
+	}
+
+	boolean isEmpty() {
+		return discarded + spilled + entries.size() - start == 0;
+	}
+
+	/**
+	 * Passes all messages in order to the consumer, exceptions as part of the message. Messages added by the consumer
+	 * are passed as well.
+	 *
+	 * <p>Messages are addressed by their position since the buffer was created, which stays valid while the consumer's
+	 * messages move entries from memory into the file. The position is mapped to the file or to memory anew for every
+	 * message, the file is read sequentially.
+	 */
+	void forEach(ReplayConsumer consumer) {
+		if (discarded > 0) {
+			consumer.accept(System.currentTimeMillis(), LogLevel.WARN, LogCategory.LOG, String.format("%d older log message%s exceeded the buffer of %d bytes and were discarded",
+					discarded, discarded != 1 ? "s" : "", budget));
+		}
+
+		DataInputStream in = null;
+		long read = 0; // spilled messages read from in
+		long flushed = 0; // spilled messages readable from in
+		boolean unreadable = false;
+
+		try {
+			for (long index = discarded; ; index++) {
+				if (index < discarded) index = discarded; // spilling failed meanwhile, the file was dropped
+
+				if (index < discarded + spilled) {
+					if (unreadable) {
+						index = discarded + spilled - 1;
+						continue;
+					}
+
+					Entry entry = null;
+
+					try {
+						if (in == null) in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)));
+
+						// entries already passed in memory may have been spilled since, skip them
+						while (read <= index - discarded) {
+							if (read == flushed) {
+								spillOut.flush();
+								flushed = spilled;
+							}
+
+							entry = readEntry(in);
+							read++;
+						}
+					} catch (IOException e) {
+						System.err.printf("Error reading spilled log, skipping %d messages: %s%n", discarded + spilled - index, e);
+						unreadable = true;
+						index = discarded + spilled - 1;
+						continue;
+					}
+
+					consumer.accept(entry.time, entry.level, entry.category, entry.msg);
+				} else if (index < discarded + spilled + entries.size() - start) {
+					Entry entry = entries.get(start + (int) (index - discarded - spilled));
+					consumer.accept(entry.time, entry.level, entry.category, entry.msg);
+				} else {
+					break;
+				}
+			}
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases the spill file, the buffer must not be used afterwards.
+	 */
+	void close() {
+		entries.clear();
+		closeSpill();
+	}
+
+	private void evict(Entry entry) {
+		if (spill) {
+			try {
+				if (spillOut == null) {
+					spillFile = Files.createTempFile("coprolite-log", ".bin");
+					spillFile.toFile().deleteOnExit();
+					spillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+				}
+
+				Integer categoryId = categoryIds.get(entry.category);
+
+				if (categoryId == null) {
+					categoryId = categories.size();
+					categories.add(entry.category);
+					categoryIds.put(entry.category, categoryId);
+				}
+
+				spillOut.writeLong(entry.time);
+				spillOut.writeByte(entry.level.ordinal());
+				spillOut.writeInt(categoryId);
+				writeString(spillOut, entry.msg);
+				spilled++;
+				return;
+			} catch (IOException e) {
+				System.err.printf("Error spilling log, discarding old messages instead: %s%n", e);
+				spill = false;
+				discarded += spilled;
+				spilled = 0;
+				closeSpill();
+			}
+		}
+
+		discarded++;
+	}
+
+	private void closeSpill() {
+		if (spillOut == null) return;
+
+		try {
+			spillOut.close();
+		} catch (IOException ignored) {
+		}
+
+		try {
+			Files.deleteIfExists(spillFile);
+		} catch (IOException ignored) {
+		}
+
+		spillOut = null;
+		spillFile = null;
+	}
+
+	private static String render(String msg, Throwable exc) {
+		StringWriter writer = new StringWriter(500);
+
+		try (PrintWriter pw = new PrintWriter(writer, false)) {
+			pw.println(msg);
+			exc.printStackTrace(pw);
+		}
+
+		// printStackTrace ends with a line separator which the formatting adds again
+		int end = writer.getBuffer().length() - System.lineSeparator().length();
+		return writer.getBuffer().substring(0, Math.max(end, 0));
+	}
+
+	private Entry readEntry(DataInputStream in) throws IOException {
+		return new Entry(in.readLong(), LogLevel.values()[in.readByte()], categories.get(in.readInt()), readString(in));
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) return null;
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@FunctionalInterface
+	interface ReplayConsumer {
+		void accept(long time, LogLevel level, LogCategory category, String msg);
+	}
+
+	private record Entry(long time, LogLevel level, LogCategory category, String msg) {
+		long size() {
+			return ENTRY_OVERHEAD + (msg != null ? 2L * msg.length() : 0);
+		}
+	}
+}
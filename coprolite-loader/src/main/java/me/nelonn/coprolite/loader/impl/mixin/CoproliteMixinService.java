@@ -16,8 +16,8 @@
 
 package me.nelonn.coprolite.loader.impl.mixin;
 
-import me.nelonn.coprolite.api.CoproliteLoader;
 import me.nelonn.coprolite.loader.api.CoproliteLauncher;
+import me.nelonn.coprolite.loader.impl.CoproliteLoaderImpl;
 import me.nelonn.coprolite.loader.impl.plugin.PluginContainerImpl;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.tree.ClassNode;
@@ -38,6 +38,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Optional;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -111,8 +112,8 @@ public final class CoproliteMixinService extends MixinServiceAbstract implements
         try {
             String[] names = name.split("\\|", 2);
             if (names.length == 2) {
-                JarFile jar = CoproliteLoader.getInstance().getPluginContainer(names[0])
-                        .map(it -> ((PluginContainerImpl) it).getJarFile())
+                JarFile jar = Optional.ofNullable(CoproliteLoaderImpl.INSTANCE.getPluginInternal(names[0]))
+                        .map(PluginContainerImpl::getJarFile)
                         .orElseThrow(() -> new NoSuchFileException("No such plugin: " + names[0]));
                 JarEntry entry = jar.getJarEntry(names[1]);
                 if (entry == null) throw new NoSuchFileException("No such file: " + names[1]);
@@ -147,12 +148,12 @@ public final class CoproliteMixinService extends MixinServiceAbstract implements
 
     @Override
     public Class<?> findClass(String name) throws ClassNotFoundException {
-        return Class.forName(name);
+        return Class.forName(name, true, CoproliteLauncher.getInstance().getTargetClassLoader());
     }
 
     @Override
     public Class<?> findClass(String name, boolean initialize) throws ClassNotFoundException {
-        return Class.forName(name, initialize, loader);
+        return Class.forName(name, initialize, CoproliteLauncher.getInstance().getTargetClassLoader());
     }
 
     @Override
@@ -24,7 +24,10 @@ import org.jetbrains.annotations.NotNull;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.function.Consumer;
 
 public class DirectoryPluginCandidateFinder implements PluginCandidateFinder {
@@ -48,12 +51,15 @@ public class DirectoryPluginCandidateFinder implements PluginCandidateFinder {
             throw new RuntimeException(path + " is not a directory!");
         }
 
+        // Sorted by name, the directory listing order differs between file systems
+        List<Path> files = new ArrayList<>();
+
         try {
             Files.walkFileTree(path, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                     if (isValidFile(file)) {
-                        out.accept(file);
+                        files.add(file);
                     }
                     return FileVisitResult.CONTINUE;
                 }
@@ -61,6 +67,9 @@ public class DirectoryPluginCandidateFinder implements PluginCandidateFinder {
         } catch (IOException e) {
             throw new RuntimeException("Exception while searching for plugins in '" + path + "'!", e);
         }
+
+        files.sort(Comparator.comparing(file -> file.getFileName().toString()));
+        files.forEach(out);
     }
 
     public static boolean isValidFile(Path path) {
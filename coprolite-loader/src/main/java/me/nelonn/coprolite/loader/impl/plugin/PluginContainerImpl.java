@@ -17,11 +17,22 @@
 package me.nelonn.coprolite.loader.impl.plugin;
 
 import me.nelonn.coprolite.api.PluginContainer;
+import me.nelonn.coprolite.api.PluginInitializer;
+import me.nelonn.coprolite.loader.api.CoproliteLauncher;
 import me.nelonn.coprolite.loader.impl.LoaderPluginMetadata;
+import me.nelonn.coprolite.loader.impl.StartupTimings;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.JarFile;
 
 public class PluginContainerImpl implements PluginContainer {
@@ -29,6 +40,16 @@ public class PluginContainerImpl implements PluginContainer {
     private final List<Path> rootPaths;
     private final JarFile jarFile;
 
+    /**
+     * The plugin each thread waits for in {@link #initialize()}, to find waits that would close a cycle.
+     */
+    private static final Map<Thread, PluginContainerImpl> WAITING = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final CompletableFuture<Void> initialization = new CompletableFuture<>();
+    private volatile boolean initialized;
+    private volatile Thread initializingThread;
+
     public PluginContainerImpl(@NotNull LoaderPluginMetadata metadata, @NotNull Path path, @NotNull JarFile jarFile) {
         this.metadata = metadata;
         this.rootPaths = List.of(path);
@@ -55,6 +76,119 @@ public class PluginContainerImpl implements PluginContainer {
         return jarFile;
     }
 
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Runs the entrypoint unless it ran already. The entrypoint runs without holding a lock, other threads wait for it
+     * to finish. Calls from within the entrypoint return right away. A call whose wait would close a cycle of threads
+     * waiting for each other's plugins throws an {@link IllegalStateException} naming the cycle instead, the plugin
+     * stays uninitialized for the caller. A failed entrypoint isn't run again, later calls fail as well.
+     */
+    public void initialize() throws ReflectiveOperationException {
+        if (initialized) return;
+
+        if (!started.compareAndSet(false, true)) {
+            await();
+            return;
+        }
+
+        initializingThread = Thread.currentThread();
+        try {
+            runEntrypoint();
+            initialized = true;
+            initialization.complete(null);
+        } catch (Throwable e) {
+            initialization.completeExceptionally(e);
+            throw e;
+        } finally {
+            initializingThread = null;
+        }
+    }
+
+    /**
+     * Marks the plugin as failed without running its entrypoint, unless it was started already.
+     */
+    public void fail(@NotNull Throwable cause) {
+        if (started.compareAndSet(false, true)) initialization.completeExceptionally(cause);
+    }
+
+    /**
+     * @return why the plugin failed to initialize, null if it didn't
+     */
+    public @Nullable Throwable getInitFailure() {
+        return initialization.isCompletedExceptionally() ? initialization.exceptionNow() : null;
+    }
+
+    private void await() {
+        Thread current = Thread.currentThread();
+        if (initializingThread == current) return; // re-entered from the entrypoint
+
+        WAITING.put(current, this);
+        try {
+            List<PluginContainerImpl> cycle = findCycle(current);
+
+            if (cycle != null) {
+                StringJoiner path = new StringJoiner(" -> ");
+                path.add(cycle.get(cycle.size() - 1).metadata.getId());
+                for (PluginContainerImpl plugin : cycle) path.add(plugin.metadata.getId());
+
+                throw new IllegalStateException(String.format("Plugin %s can't be awaited on %s, its initialization waits for this thread: %s",
+                        metadata.getId(), current.getName(), path));
+            }
+
+            initialization.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Plugin " + metadata.getId() + " failed to initialize", e.getCause());
+        } finally {
+            WAITING.remove(current);
+        }
+    }
+
+    /**
+     * Follows the threads initializing plugins and the plugins they wait for, starting with this plugin. Each thread
+     * registers its wait before checking, so of two threads closing a cycle at least one sees it.
+     *
+     * @return the plugins waited for from this one to the one {@code thread} initializes, null if there is no cycle
+     */
+    private @Nullable List<PluginContainerImpl> findCycle(Thread thread) {
+        List<PluginContainerImpl> ret = new ArrayList<>();
+        PluginContainerImpl plugin = this;
+        ret.add(plugin);
+
+        for (int i = 0, max = WAITING.size() + 1; i < max; i++) { // bounded, the waits change meanwhile
+            Thread owner = plugin.initializingThread;
+            if (owner == null) return null;
+
+            if (owner == thread) return ret;
+
+            plugin = WAITING.get(owner);
+            if (plugin == null) return null;
+            ret.add(plugin);
+        }
+
+        return null;
+    }
+
+    private void runEntrypoint() throws ReflectiveOperationException {
+        String entrypoint = metadata.getEntrypoint();
+        if (entrypoint == null) return;
+        long start = System.nanoTime();
+        Class<?> clazz = Class.forName(entrypoint, true, CoproliteLauncher.getInstance().getTargetClassLoader());
+
+        Class<? extends PluginInitializer> initializerClass;
+        try {
+            initializerClass = clazz.asSubclass(PluginInitializer.class);
+        } catch (ClassCastException ex) {
+            throw new IllegalStateException("Entrypoint class `" + entrypoint + "' does not extend PluginInitializer", ex);
+        }
+
+        PluginInitializer pluginInitializer = initializerClass.getConstructor().newInstance();
+        pluginInitializer.onInitialize(this);
+        StartupTimings.record(StartupTimings.plugin(metadata.getId()), start);
+    }
+
     @Override
     public String toString() {
         return String.format("%s %s", metadata.getId(), metadata.getVersion());
@@ -31,11 +31,18 @@ public class PluginDependencyImpl implements PluginDependency {
     private final String pluginId;
     private final String matcherString;
     private final Collection<VersionPredicate> ranges;
+    private final List<VersionInterval> intervals;
 
     public PluginDependencyImpl(@NotNull String pluginId, @NotNull String matcherString) throws VersionParsingException {
         this.pluginId = pluginId;
         this.matcherString = matcherString;
         this.ranges = List.of(VersionPredicate.parse(this.matcherString));
+
+        List<VersionInterval> intervals = Collections.emptyList();
+        for (VersionPredicate predicate : ranges) {
+            intervals = VersionInterval.or(intervals, predicate.getInterval());
+        }
+        this.intervals = Collections.unmodifiableList(intervals);
     }
 
     @Override
@@ -59,13 +66,7 @@ public class PluginDependencyImpl implements PluginDependency {
 
     @Override
     public List<VersionInterval> getVersionIntervals() {
-        List<VersionInterval> ret = Collections.emptyList();
-
-        for (VersionPredicate predicate : ranges) {
-            ret = VersionInterval.or(ret, predicate.getInterval());
-        }
-
-        return ret;
+        return this.intervals;
     }
 
     @Override
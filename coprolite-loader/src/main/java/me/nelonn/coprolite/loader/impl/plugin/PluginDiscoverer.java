@@ -16,20 +16,29 @@
 
 package me.nelonn.coprolite.loader.impl.plugin;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import me.nelonn.coprolite.loader.impl.log.Log;
 import me.nelonn.coprolite.loader.impl.log.LogCategory;
 import me.nelonn.coprolite.loader.impl.CoproliteLoaderImpl;
 import me.nelonn.coprolite.loader.impl.LoaderPluginMetadata;
+import me.nelonn.coprolite.loader.impl.StartupTimings;
+import me.nelonn.coprolite.loader.impl.SystemProperties;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -41,43 +50,43 @@ public class PluginDiscoverer {
         this.path = path;
     }
 
+    /**
+     * Finds the plugin jars and reads their metadata concurrently, one virtual thread per jar.
+     *
+     * @return the candidates in the order the jars were found, arguments first, then the plugins folder by file name
+     */
     public @NotNull List<PluginCandidate> discoverPlugins(@NotNull CoproliteLoaderImpl loader) {
         long startTime = System.nanoTime();
 
+        List<Path> paths = new ArrayList<>();
+        new ArgumentPluginCandidateFinder().findPlugins(paths::add);
+        new DirectoryPluginCandidateFinder(this.path).findPlugins(paths::add);
+
         List<PluginCandidate> candidates = new ArrayList<>();
+        PluginMetadataIndex index = Boolean.parseBoolean(System.getProperty(SystemProperties.PLUGIN_INDEX, "true"))
+                ? PluginMetadataIndex.load(this.path) : null;
 
-        Consumer<Path> consumer = filePath -> {
-            File file = filePath.toFile();
-            try {
-                LoaderPluginMetadata metadata = getPluginMetadataJar(filePath);
-                if (metadata == null) {
-                    return;
-                }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<PluginCandidate>> futures = new ArrayList<>(paths.size());
 
-                String id = metadata.getId();
-                if (id.equalsIgnoreCase("coprolite") ||
-                        id.equalsIgnoreCase("paper") ||
-                        id.equalsIgnoreCase("spigot") ||
-                        id.equalsIgnoreCase("bukkit") ||
-                        id.equalsIgnoreCase("minecraft") ||
-                        id.equalsIgnoreCase("mojang")) {
-                    Log.error(LogCategory.DISCOVERY, "Could not load '" + file.getPath() + "': Restricted Name");
-                    return;
-                } else if (id.indexOf(' ') != -1) {
-                    Log.error(LogCategory.DISCOVERY, "Could not load '" + file.getPath() + "': uses the space-character (0x20) in its name");
-                    return;
-                }
-
-                JarFile jarFile = new JarFile(file);
+            for (Path filePath : paths) {
+                futures.add(executor.submit(() -> readCandidate(filePath, index)));
+            }
 
-                candidates.add(new PluginCandidate(metadata, filePath, jarFile));
-            } catch (Exception e) {
-                Log.error(LogCategory.DISCOVERY, "Could not load '" + file.getPath() + "'", e);
+            for (Future<PluginCandidate> future : futures) {
+                PluginCandidate candidate = future.get();
+                if (candidate != null) candidates.add(candidate);
             }
-        };
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while discovering plugins", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
 
-        new ArgumentPluginCandidateFinder().findPlugins(consumer);
-        new DirectoryPluginCandidateFinder(this.path).findPlugins(consumer);
+        if (index != null) {
+            index.save();
+        }
 
         long endTime = System.nanoTime();
 
@@ -86,14 +95,76 @@ public class PluginDiscoverer {
         return candidates;
     }
 
-    @Nullable
-    public LoaderPluginMetadata getPluginMetadataJar(@NotNull Path path) throws IOException {
-        try (ZipFile zf = new ZipFile(path.toFile())) {
-            ZipEntry entry = zf.getEntry("coprolite.plugin.json");
-            if (entry == null) return null;
-            try (InputStream is = zf.getInputStream(entry)) {
-                return PluginMetadataParser.parseMetadata(is);
+    /**
+     * Opens a plugin jar, the candidate keeps the jar open. Jars the index knows not to be plugins aren't opened.
+     *
+     * @param index the metadata index, null if disabled
+     * @return the candidate or null if the jar is no plugin or can't be loaded
+     */
+    private @Nullable PluginCandidate readCandidate(@NotNull Path filePath, @Nullable PluginMetadataIndex index) {
+        File file = filePath.toFile();
+        JarFile jarFile = null;
+
+        try {
+            long start = System.nanoTime();
+            LoaderPluginMetadata metadata;
+
+            PluginMetadataIndex.Key key = index != null ? PluginMetadataIndex.Key.of(filePath) : null;
+            JsonElement json = index != null ? index.get(filePath, key) : null;
+
+            if (json != null) {
+                if (json.isJsonNull()) return null;
+                metadata = PluginMetadataParser.parseMetadata(json);
+                jarFile = new JarFile(file);
+            } else {
+                jarFile = new JarFile(file);
+                json = readPluginJson(jarFile);
+                if (index != null) index.put(filePath, key, json);
+                metadata = json != null ? PluginMetadataParser.parseMetadata(json) : null;
             }
+
+            StartupTimings.record(StartupTimings.METADATA, start);
+            if (metadata == null) {
+                jarFile.close();
+                return null;
+            }
+
+            String id = metadata.getId();
+            if (id.equalsIgnoreCase("coprolite") ||
+                    id.equalsIgnoreCase("paper") ||
+                    id.equalsIgnoreCase("spigot") ||
+                    id.equalsIgnoreCase("bukkit") ||
+                    id.equalsIgnoreCase("minecraft") ||
+                    id.equalsIgnoreCase("mojang")) {
+                Log.error(LogCategory.DISCOVERY, "Could not load '" + file.getPath() + "': Restricted Name");
+                jarFile.close();
+                return null;
+            } else if (id.indexOf(' ') != -1) {
+                Log.error(LogCategory.DISCOVERY, "Could not load '" + file.getPath() + "': uses the space-character (0x20) in its name");
+                jarFile.close();
+                return null;
+            }
+
+            return new PluginCandidate(metadata, filePath, jarFile);
+        } catch (Exception e) {
+            Log.error(LogCategory.DISCOVERY, "Could not load '" + file.getPath() + "'", e);
+
+            if (jarFile != null) {
+                try {
+                    jarFile.close();
+                } catch (IOException ignored) {
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private static @Nullable JsonElement readPluginJson(@NotNull ZipFile zf) throws IOException {
+        ZipEntry entry = zf.getEntry("coprolite.plugin.json");
+        if (entry == null) return null;
+        try (Reader reader = new InputStreamReader(zf.getInputStream(entry), StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader);
         }
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl.plugin;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Metadata of the plugin jars of the previous discovery, stored in the plugins folder.
+ *
+ * <p>Each jar is keyed by its path, size, modification time and the CRC of its central directory, the latter changes
+ * with any entry of the jar even if the size and time happen to match. A matching jar's {@code coprolite.plugin.json}
+ * is taken from the index instead of reading it from the jar, jars without one are remembered as well and not opened
+ * at all. Only jars seen by the current discovery are written back, so removed jars drop out of the index.
+ */
+public final class PluginMetadataIndex {
+    public static final String FILE = ".coprolite-index.json";
+    private static final int FORMAT_VERSION = 1;
+    private static final int EOCD_SIZE = 22;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    private final Path file;
+    private final Map<String, Entry> entries;
+    private final Map<String, Entry> used = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private volatile boolean dirty;
+
+    private PluginMetadataIndex(Path file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    public static @NotNull PluginMetadataIndex load(@NotNull Path directory) {
+        Path file = directory.resolve(FILE);
+        Map<String, Entry> entries = new HashMap<>();
+
+        try {
+            JsonObject json = JsonParser.parseString(Files.readString(file, StandardCharsets.UTF_8)).getAsJsonObject();
+
+            if (json.get("format").getAsInt() == FORMAT_VERSION) {
+                for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("jars").entrySet()) {
+                    JsonObject value = entry.getValue().getAsJsonObject();
+                    Key key = new Key(value.get("size").getAsLong(), value.get("modified").getAsLong(), value.get("checksum").getAsLong());
+                    entries.put(entry.getKey(), new Entry(key, value.get("metadata")));
+                }
+            }
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException | RuntimeException e) {
+            Log.debug(LogCategory.DISCOVERY, "Unable to read plugin index " + file + ", rebuilding it", e);
+        }
+
+        return new PluginMetadataIndex(file, entries);
+    }
+
+    /**
+     * @return the cached {@code coprolite.plugin.json} of the jar, {@link JsonNull} if the jar has none, or null if
+     * the jar isn't indexed or changed
+     */
+    public @Nullable JsonElement get(@NotNull Path path, @NotNull Key key) {
+        Entry entry = entries.get(path.toString());
+        if (entry == null || !entry.key.equals(key)) return null;
+
+        used.put(path.toString(), entry);
+        hits.incrementAndGet();
+        return entry.metadata;
+    }
+
+    /**
+     * @param metadata the {@code coprolite.plugin.json} of the jar, null if it has none
+     */
+    public void put(@NotNull Path path, @NotNull Key key, @Nullable JsonElement metadata) {
+        used.put(path.toString(), new Entry(key, metadata != null ? metadata : JsonNull.INSTANCE));
+        dirty = true;
+    }
+
+    /**
+     * Writes the index if a jar was added, changed or removed.
+     */
+    public void save() {
+        if (!dirty && used.size() == entries.size()) return;
+
+        JsonObject jars = new JsonObject();
+        for (Map.Entry<String, Entry> entry : used.entrySet()) {
+            JsonObject value = new JsonObject();
+            value.addProperty("size", entry.getValue().key.size);
+            value.addProperty("modified", entry.getValue().key.modified);
+            value.addProperty("checksum", entry.getValue().key.checksum);
+            value.add("metadata", entry.getValue().metadata);
+            jars.add(entry.getKey(), value);
+        }
+
+        JsonObject json = new JsonObject();
+        json.addProperty("format", FORMAT_VERSION);
+        json.add("jars", jars);
+
+        try {
+            Path tmp = Files.createTempFile(file.getParent(), FILE, ".tmp");
+            Files.writeString(tmp, json.toString(), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.debug(LogCategory.DISCOVERY, "Unable to write plugin index " + file, e);
+        }
+
+        Log.debug(LogCategory.DISCOVERY, "Plugin index: %d of %d jar%s unchanged, %d pruned", hits.get(), used.size(), used.size() != 1 ? "s" : "",
+                entries.keySet().stream().filter(path -> !used.containsKey(path)).count());
+    }
+
+    public record Key(long size, long modified, long checksum) {
+        /**
+         * Reads the key of a jar, only the end of the file is read to checksum the central directory.
+         */
+        public static @NotNull Key of(@NotNull Path path) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new Key(attributes.size(), attributes.lastModifiedTime().toMillis(), centralDirectoryChecksum(channel));
+            }
+        }
+
+        private static long centralDirectoryChecksum(FileChannel channel) throws IOException {
+            long size = channel.size();
+            int tailSize = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT);
+            ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, tail, size - tailSize);
+
+            CRC32 crc = new CRC32();
+
+            for (int pos = tailSize - EOCD_SIZE; pos >= 0; pos--) {
+                if (tail.getInt(pos) != EOCD_SIGNATURE) continue;
+
+                long cdSize = Integer.toUnsignedLong(tail.getInt(pos + 12));
+                long cdOffset = Integer.toUnsignedLong(tail.getInt(pos + 16));
+                if (cdOffset + cdSize > size - tailSize + pos) break; // zip64 or not a central directory
+
+                ByteBuffer cd = ByteBuffer.allocate((int) cdSize);
+                readFully(channel, cd, cdOffset);
+                crc.update(cd.flip());
+                return crc.getValue();
+            }
+
+            // No plain central directory, the end of the file still changes with the entries
+            crc.update(tail.rewind());
+            return crc.getValue();
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("unexpected end of file");
+            }
+        }
+    }
+
+    private record Entry(Key key, JsonElement metadata) { }
+}
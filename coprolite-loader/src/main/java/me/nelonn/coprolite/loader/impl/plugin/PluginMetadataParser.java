@@ -40,6 +40,10 @@ public class PluginMetadataParser implements JsonDeserializer<LoaderPluginMetada
         return GSON.fromJson(reader, LoaderPluginMetadata.class);
     }
 
+    public static LoaderPluginMetadata parseMetadata(@NotNull JsonElement json) {
+        return GSON.fromJson(json, LoaderPluginMetadata.class);
+    }
+
     private final V0PluginMetadataParser v0PluginMetadataParser = new V0PluginMetadataParser();
 
     @Override
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl.plugin;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Thrown when the discovered plugins can't be resolved, carries every problem found.
+ */
+public class PluginResolutionException extends Exception {
+    private final List<String> problems;
+
+    public PluginResolutionException(@NotNull List<String> problems) {
+        super("Unable to resolve plugins:\n - " + String.join("\n - ", problems));
+        this.problems = List.copyOf(problems);
+    }
+
+    public @NotNull List<String> getProblems() {
+        return problems;
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl.plugin;
+
+import me.nelonn.coprolite.api.PluginDependency;
+import me.nelonn.coprolite.api.version.SemanticVersion;
+import me.nelonn.coprolite.api.version.Version;
+import me.nelonn.coprolite.api.version.VersionInterval;
+import me.nelonn.coprolite.api.version.VersionParser;
+import me.nelonn.coprolite.api.version.VersionParsingException;
+import me.nelonn.coprolite.loader.impl.CoproliteLoaderImpl;
+import me.nelonn.coprolite.loader.impl.log.Log;
+import me.nelonn.coprolite.loader.impl.log.LogCategory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Checks the dependencies of the discovered plugins and orders them.
+ *
+ * <p>When several jars share an id, the highest version is selected. A selected version that doesn't lie within the
+ * version intervals required by the other selected plugins is replaced by the next lower one that does, candidates are
+ * only ever replaced downwards, so this settles after at most one pass per candidate. The jars of the candidates that
+ * weren't selected are closed.
+ *
+ * <p>Every missing dependency, version mismatch and dependency cycle is collected and reported together. The result is
+ * ordered so that each plugin comes after its dependencies, plugins without an order between them keep the order of
+ * discovery.
+ */
+public class PluginResolver {
+    private final Map<String, Version> builtins;
+
+    /**
+     * @param builtins ids provided by the environment rather than a plugin, a null version accepts any requirement
+     */
+    public PluginResolver(@NotNull Map<String, Version> builtins) {
+        this.builtins = builtins;
+    }
+
+    /**
+     * @return {@code java} and {@code coprolite}, the latter without version unless running from the launcher jar. A
+     * development build of Coprolite like {@code 0.0.1-SNAPSHOT} counts as its release, as a prerelease it would fail
+     * every plugin requiring at least that release.
+     */
+    public static @NotNull Map<String, Version> getBuiltins() {
+        Map<String, Version> ret = new HashMap<>();
+        ret.put("java", parseVersion(Runtime.version().version().stream().map(String::valueOf).collect(Collectors.joining("."))));
+        ret.put("coprolite", parseVersion(stripPrerelease(CoproliteLoaderImpl.class.getPackage().getImplementationVersion())));
+        return ret;
+    }
+
+    private static @Nullable String stripPrerelease(@Nullable String version) {
+        if (version == null) return null;
+
+        for (int i = 0; i < version.length(); i++) {
+            char c = version.charAt(i);
+            if (c == '-' || c == '+') return version.substring(0, i);
+        }
+
+        return version;
+    }
+
+    /**
+     * @param candidates the discovered plugins in order of discovery
+     * @return the selected plugins, each after its dependencies
+     */
+    public @NotNull List<PluginCandidate> resolve(@NotNull List<PluginCandidate> candidates) throws PluginResolutionException {
+        List<String> problems = new ArrayList<>();
+        Map<String, List<Node>> byId = new LinkedHashMap<>();
+
+        for (int i = 0; i < candidates.size(); i++) {
+            PluginCandidate candidate = candidates.get(i);
+            String id = candidate.getMetadata().getId();
+
+            if (builtins.containsKey(id)) {
+                problems.add(String.format("Plugin %s uses the reserved id %s", candidate.getRootPaths().get(0), id));
+                continue;
+            }
+
+            byId.computeIfAbsent(id, k -> new ArrayList<>()).add(new Node(candidate, parseVersion(candidate.getMetadata().getVersion()), i));
+        }
+
+        Map<String, Node> selected = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Node>> entry : byId.entrySet()) {
+            entry.getValue().sort(Node.BEST_FIRST);
+            selected.put(entry.getKey(), entry.getValue().get(0));
+        }
+
+        select(byId, selected);
+        validate(byId, selected, problems);
+        List<PluginCandidate> ret = problems.isEmpty() ? sort(selected, problems) : List.of();
+
+        for (List<Node> nodes : byId.values()) {
+            if (nodes.size() == 1) continue;
+            Node node = selected.get(nodes.get(0).candidate.getMetadata().getId());
+
+            if (problems.isEmpty()) {
+                Log.warn(LogCategory.RESOLUTION, "Found %d versions of plugin %s, using %s from %s", nodes.size(),
+                        node.candidate.getMetadata().getId(), node.versionString(), node.candidate.getRootPaths().get(0));
+            }
+
+            for (Node other : nodes) {
+                if (other == node) continue;
+                try {
+                    other.candidate.getJarFile().close();
+                } catch (IOException e) {
+                    Log.debug(LogCategory.RESOLUTION, "Unable to close " + other.candidate.getRootPaths().get(0), e);
+                }
+            }
+        }
+
+        if (!problems.isEmpty()) throw new PluginResolutionException(problems);
+
+        Log.debug(LogCategory.RESOLUTION, "Plugin order: %s", ret.stream().map(it -> it.getMetadata().getId()).toList());
+        return ret;
+    }
+
+    private void select(Map<String, List<Node>> byId, Map<String, Node> selected) {
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+            Map<String, List<VersionInterval>> required = new HashMap<>();
+
+            for (Node node : selected.values()) {
+                for (PluginDependency dependency : node.candidate.getMetadata().getDependencies()) {
+                    List<Node> nodes = byId.get(dependency.getPluginId());
+                    if (nodes == null || nodes.size() == 1) continue;
+                    required.merge(dependency.getPluginId(), dependency.getVersionIntervals(), VersionInterval::and);
+                }
+            }
+
+            for (Map.Entry<String, List<VersionInterval>> entry : required.entrySet()) {
+                Node current = selected.get(entry.getKey());
+                if (contains(entry.getValue(), current.version)) continue;
+
+                List<Node> nodes = byId.get(entry.getKey());
+                for (int i = nodes.indexOf(current) + 1; i < nodes.size(); i++) {
+                    if (contains(entry.getValue(), nodes.get(i).version)) {
+                        selected.put(entry.getKey(), nodes.get(i));
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void validate(Map<String, List<Node>> byId, Map<String, Node> selected, List<String> problems) {
+        Set<String> conflicts = new HashSet<>();
+
+        for (Node node : selected.values()) {
+            for (PluginDependency dependency : node.candidate.getMetadata().getDependencies()) {
+                String id = dependency.getPluginId();
+
+                if (builtins.containsKey(id)) {
+                    Version version = builtins.get(id);
+                    if (version != null && !contains(dependency.getVersionIntervals(), version)) {
+                        problems.add(String.format("%s requires %s, but %s %s is present", node, dependency, id, version));
+                    }
+                    continue;
+                }
+
+                Node target = selected.get(id);
+                if (target == null) {
+                    problems.add(String.format("%s requires %s, which is missing", node, dependency));
+                } else if (!contains(dependency.getVersionIntervals(), target.version)) {
+                    List<Node> nodes = byId.get(id);
+                    problems.add(String.format("%s requires %s, but %s is present%s", node, dependency, target, nodes.size() == 1 ? ""
+                            : " (found " + nodes.stream().map(Node::versionString).collect(Collectors.joining(", ")) + ")"));
+
+                    if (nodes.size() > 1 && conflicts.add(id)) {
+                        explainConflict(id, selected, problems);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void explainConflict(String id, Map<String, Node> selected, List<String> problems) {
+        List<VersionInterval> intervals = null;
+        List<String> dependents = new ArrayList<>();
+
+        for (Node node : selected.values()) {
+            for (PluginDependency dependency : node.candidate.getMetadata().getDependencies()) {
+                if (!dependency.getPluginId().equals(id)) continue;
+                intervals = intervals == null ? dependency.getVersionIntervals() : VersionInterval.and(intervals, dependency.getVersionIntervals());
+                dependents.add(node + " requires " + dependency);
+            }
+        }
+
+        if (intervals != null && intervals.isEmpty()) {
+            problems.add(String.format("No version of %s can satisfy all of: %s", id, String.join(", ", dependents)));
+        }
+    }
+
+    private static List<PluginCandidate> sort(Map<String, Node> selected, List<String> problems) {
+        Map<Node, List<Node>> dependents = new HashMap<>();
+        Map<Node, Integer> pending = new HashMap<>();
+
+        for (Node node : selected.values()) {
+            Set<Node> dependencies = new HashSet<>();
+            for (PluginDependency dependency : node.candidate.getMetadata().getDependencies()) {
+                Node target = selected.get(dependency.getPluginId());
+                if (target != null && target != node && dependencies.add(target)) {
+                    dependents.computeIfAbsent(target, k -> new ArrayList<>()).add(node);
+                }
+            }
+            pending.put(node, dependencies.size());
+        }
+
+        PriorityQueue<Node> ready = new PriorityQueue<>(Comparator.comparingInt(node -> node.index));
+        for (Map.Entry<Node, Integer> entry : pending.entrySet()) {
+            if (entry.getValue() == 0) ready.add(entry.getKey());
+        }
+
+        List<PluginCandidate> ret = new ArrayList<>(selected.size());
+        while (!ready.isEmpty()) {
+            Node node = ready.poll();
+            ret.add(node.candidate);
+            pending.remove(node);
+
+            for (Node dependent : dependents.getOrDefault(node, List.of())) {
+                if (pending.merge(dependent, -1, Integer::sum) == 0) ready.add(dependent);
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            problems.add("Dependency cycle between " + findCycle(pending.keySet(), selected));
+        }
+
+        return ret;
+    }
+
+    /**
+     * Follows the dependencies among the plugins left over by the sort, every one of them depends on another one.
+     */
+    private static String findCycle(Set<Node> remaining, Map<String, Node> selected) {
+        List<Node> path = new ArrayList<>();
+        Node node = remaining.stream().min(Comparator.comparingInt(it -> it.index)).orElseThrow();
+
+        while (!path.contains(node)) {
+            path.add(node);
+            for (PluginDependency dependency : node.candidate.getMetadata().getDependencies()) {
+                Node target = selected.get(dependency.getPluginId());
+                if (target != null && target != node && remaining.contains(target)) {
+                    node = target;
+                    break;
+                }
+            }
+        }
+
+        List<Node> cycle = new ArrayList<>(path.subList(path.indexOf(node), path.size()));
+        cycle.add(node);
+        return cycle.stream().map(it -> it.candidate.getMetadata().getId()).collect(Collectors.joining(" -> "));
+    }
+
+    private static boolean contains(List<VersionInterval> intervals, @Nullable Version version) {
+        for (VersionInterval interval : intervals) {
+            if (interval == null) continue;
+            Version min = interval.getMin();
+            Version max = interval.getMax();
+            if (min == null && max == null) return true;
+            if (version == null) continue;
+
+            if (!(version instanceof SemanticVersion) || !interval.isSemantic()) {
+                // non-semantic intervals only hold a single version
+                if (min != null && min.getFriendlyString().equals(version.getFriendlyString())) return true;
+                continue;
+            }
+
+            int cmp;
+            if (min != null && ((cmp = version.compareTo(min)) < 0 || cmp == 0 && !interval.isMinInclusive())) continue;
+            if (max != null && ((cmp = version.compareTo(max)) > 0 || cmp == 0 && !interval.isMaxInclusive())) continue;
+            return true;
+        }
+
+        return false;
+    }
+
+    private static @Nullable Version parseVersion(@Nullable Object version) {
+        if (version == null || version.toString().isEmpty()) return null;
+
+        try {
+            return VersionParser.parse(version.toString(), false);
+        } catch (VersionParsingException e) {
+            return null;
+        }
+    }
+
+    private record Node(PluginCandidate candidate, @Nullable Version version, int index) {
+        static final Comparator<Node> BEST_FIRST = (a, b) -> {
+            boolean aSemantic = a.version instanceof SemanticVersion;
+            boolean bSemantic = b.version instanceof SemanticVersion;
+            if (aSemantic && bSemantic) return b.version.compareTo(a.version);
+            if (aSemantic != bSemantic) return aSemantic ? -1 : 1;
+            return 0; // keep the order of discovery
+        };
+
+        String versionString() {
+            return version != null ? version.getFriendlyString() : "<no version>";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+
+        @Override
+        public String toString() {
+            return candidate.getMetadata().getId() + " " + versionString();
+        }
+    }
+}
@@ -36,6 +36,7 @@ public class V0PluginMetadata implements LoaderPluginMetadata {
     private final Map<String, CustomValue> customValues;
 
     private final String entrypoint;
+    private final boolean lazyEntrypoint;
     private final String accessWidener;
     private final Collection<MixinEntry> mixins;
 
@@ -47,6 +48,7 @@ public class V0PluginMetadata implements LoaderPluginMetadata {
                             Collection<String> authors,
                             Map<String, CustomValue> customValues,
                             @Nullable String entrypoint,
+                            boolean lazyEntrypoint,
                             @Nullable String accessWidener,
                             Collection<MixinEntry> mixins) {
         this.id = id;
@@ -57,6 +59,7 @@ public class V0PluginMetadata implements LoaderPluginMetadata {
         this.authors = Collections.unmodifiableCollection(authors);
         this.customValues = Collections.unmodifiableMap(customValues);
         this.entrypoint = entrypoint;
+        this.lazyEntrypoint = lazyEntrypoint;
         this.accessWidener = accessWidener;
         this.mixins = Collections.unmodifiableCollection(mixins);
     }
@@ -111,6 +114,11 @@ public class V0PluginMetadata implements LoaderPluginMetadata {
         return this.entrypoint;
     }
 
+    @Override
+    public boolean isLazyEntrypoint() {
+        return this.lazyEntrypoint;
+    }
+
     public @Nullable String getAccessWidener() {
         return this.accessWidener;
     }
@@ -57,11 +57,12 @@ public class V0PluginMetadataParser {
             }
         }
         String entrypoint = json.has("entrypoint") ? json.get("entrypoint").getAsString() : null;
+        boolean lazyEntrypoint = json.has("lazyEntrypoint") && json.get("lazyEntrypoint").getAsBoolean();
         String accessWidener = json.has("accessWidener") ? json.get("accessWidener").getAsString() : null;
         Collection<V0PluginMetadata.MixinEntry> mixins = json.has("mixins") ? StreamSupport
                 .stream(json.getAsJsonArray("mixins").spliterator(), false)
                 .map(it -> new V0PluginMetadata.MixinEntry(it.getAsString())).collect(Collectors.toSet()) :
                 Collections.emptyList();
-        return new V0PluginMetadata(id, version, name, dependencies, description, authors, customValues, entrypoint, accessWidener, mixins);
+        return new V0PluginMetadata(id, version, name, dependencies, description, authors, customValues, entrypoint, lazyEntrypoint, accessWidener, mixins);
     }
 }
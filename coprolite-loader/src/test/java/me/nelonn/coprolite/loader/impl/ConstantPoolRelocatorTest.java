@@ -0,0 +1,180 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.util.TraceClassVisitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the relocator with a {@link ClassRemapper} round trip applying the same rules.
+ */
+class ConstantPoolRelocatorTest {
+    private static final Map<String, String> RULES = Map.of(
+            "java/util/", "relocated/util/",
+            "java/util/concurrent/", "java/util/concurrent/");
+
+    @Test
+    void matchesClassRemapper() throws IOException {
+        for (Class<?> c : List.of(Fixture.class, Point.class, Values.class)) {
+            byte[] data = readClass(c);
+            byte[] relocated = ConstantPoolRelocator.of(RULES).relocate(data);
+
+            assertNotSame(data, relocated, c.getName());
+            assertEquals(textify(remap(data)), textify(relocated), c.getName());
+        }
+    }
+
+    @Test
+    void keepsStringValues() throws IOException {
+        String text = textify(ConstantPoolRelocator.of(RULES).relocate(readClass(Fixture.class)));
+
+        assertTrue(text.contains("\"java/util/List\""), text);
+        assertTrue(text.contains("\"Ljava/util/List;\""), text);
+        assertTrue(text.contains("Lrelocated/util/List;"), text);
+    }
+
+    @Test
+    void relocatesDescriptorSharedWithString() throws IOException {
+        byte[] data = readClass(SharedDescriptor.class);
+        byte[] relocated = ConstantPoolRelocator.of(RULES).relocate(data);
+        String text = textify(relocated);
+
+        assertNotSame(data, relocated);
+        assertEquals(textify(remap(data)), text);
+        assertTrue(text.contains("Lrelocated/util/Comparator;"), text);
+        assertTrue(text.contains("\"Ljava/util/Comparator;\""), text);
+    }
+
+    @Test
+    void returnsInputWithoutMatch() throws IOException {
+        byte[] data = readClass(Values.class);
+
+        assertSame(data, ConstantPoolRelocator.of(Map.of("org/example/", "org/relocated/")).relocate(data));
+        assertSame(data, ConstantPoolRelocator.EMPTY.relocate(data));
+    }
+
+    private static byte[] remap(byte[] data) {
+        ClassWriter writer = new ClassWriter(0);
+        new ClassReader(data).accept(new ClassRemapper(writer, new Remapper() {
+            @Override
+            public String map(String internalName) {
+                String ret = internalName;
+                int longest = 0;
+
+                for (Map.Entry<String, String> rule : RULES.entrySet()) {
+                    String prefix = rule.getKey();
+
+                    if (prefix.length() > longest && internalName.startsWith(prefix)) {
+                        ret = rule.getValue() + internalName.substring(prefix.length());
+                        longest = prefix.length();
+                    }
+                }
+
+                return ret;
+            }
+        }), 0);
+
+        return writer.toByteArray();
+    }
+
+    private static String textify(byte[] data) {
+        StringWriter out = new StringWriter();
+        new ClassReader(data).accept(new TraceClassVisitor(new PrintWriter(out)), 0);
+        return out.toString();
+    }
+
+    private static byte[] readClass(Class<?> c) throws IOException {
+        try (InputStream is = c.getResourceAsStream(c.getName().substring(c.getPackageName().length() + 1) + ".class")) {
+            return is.readAllBytes();
+        }
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Values {
+        String value() default "Ljava/util/List;";
+
+        Class<?> type() default List.class;
+
+        TimeUnit unit() default TimeUnit.SECONDS;
+
+        Class<?>[] types() default {};
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE_USE)
+    @interface TypeUse {
+        String value() default "";
+    }
+
+    @Values(value = "Ljava/util/List;", type = ArrayList.class, unit = TimeUnit.MINUTES, types = { Map.class, String.class })
+    static class Fixture<T extends List<String>> {
+        private final List<@TypeUse("java/util/List") String> names = new ArrayList<>();
+        private Map<String, T> byName;
+
+        @Values("java/util/List")
+        List<String> names(@Values(type = Map.class) Map<String, Integer> counts) {
+            List<String> ret = new ArrayList<>(counts.keySet());
+            Function<List<String>, Integer> size = List::size;
+            ret.add("java/util/List");
+            ret.add(String.valueOf(size.apply(names)));
+            ret.add(TimeUnit.SECONDS.name());
+            return ret;
+        }
+
+        <E extends Exception> Map<String, T> byName() throws E {
+            try {
+                return byName;
+            } catch (@TypeUse RuntimeException e) {
+                return Map.of();
+            }
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    static class SharedDescriptor {
+        // the constant and the field's descriptor share a Utf8 entry, which is the only one to relocate
+        static final String TYPE = "Ljava/util/Comparator;";
+
+        java.util.Comparator comparator;
+    }
+
+    record Point(@TypeUse List<String> names, Map<String, Integer> counts) {
+    }
+}
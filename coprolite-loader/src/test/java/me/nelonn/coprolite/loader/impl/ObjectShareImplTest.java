@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ObjectShareImplTest {
+    private static final String KEY = "test:key";
+    private static final Executor INLINE = Runnable::run;
+    private static final Executor REJECTING = task -> {
+        throw new RejectedExecutionException("test");
+    };
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void shutdownPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void asyncCallbacksKeepOrderAcrossExecutors() throws InterruptedException {
+        Executor[] executors = { INLINE, REJECTING, pool };
+        int count = 300;
+
+        for (boolean valueFirst : new boolean[] { false, true }) {
+            ObjectShareImpl share = new ObjectShareImpl();
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(count);
+
+            if (valueFirst) share.put(KEY, "value");
+
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                share.whenAvailableAsync(KEY, executors[i % executors.length], (key, value) -> {
+                    order.add(index);
+                    done.countDown();
+                });
+            }
+
+            if (!valueFirst) share.put(KEY, "value");
+
+            assertTrue(done.await(10, TimeUnit.SECONDS), "callbacks didn't finish");
+            assertEquals(count, order.size());
+
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, (int) order.get(i), "callback order, value first: " + valueFirst);
+            }
+        }
+    }
+
+    @Test
+    void whenAvailableFiresOnceUnderRacingPuts() throws Exception {
+        int threads = 6;
+        int requests = 50;
+
+        for (int round = 0; round < 200; round++) {
+            ObjectShareImpl share = new ObjectShareImpl();
+            AtomicInteger[] calls = new AtomicInteger[threads / 2 * requests];
+            for (int i = 0; i < calls.length; i++) calls[i] = new AtomicInteger();
+
+            CyclicBarrier start = new CyclicBarrier(threads);
+            List<Thread> started = new ArrayList<>();
+
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                Thread worker = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+
+                    if (thread % 2 == 0) {
+                        if (thread % 4 == 0) {
+                            share.put(KEY, "put " + thread);
+                        } else {
+                            share.putIfAbsent(KEY, "putIfAbsent " + thread);
+                        }
+                    } else {
+                        for (int i = 0; i < requests; i++) {
+                            AtomicInteger counter = calls[thread / 2 * requests + i];
+                            share.whenAvailable(KEY, value -> counter.incrementAndGet());
+                        }
+                    }
+                });
+                worker.start();
+                started.add(worker);
+            }
+
+            for (Thread worker : started) worker.join();
+
+            for (int i = 0; i < calls.length; i++) {
+                assertEquals(1, calls[i].get(), "invocations of request " + i + " in round " + round);
+            }
+        }
+    }
+}
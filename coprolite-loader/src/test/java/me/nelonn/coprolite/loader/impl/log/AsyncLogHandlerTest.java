@@ -0,0 +1,138 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncLogHandlerTest {
+    private static final int CAPACITY = 4;
+
+    @Test
+    void blockKeepsEveryMessageAcrossWraparound() throws InterruptedException {
+        RecordingHandler delegate = new RecordingHandler();
+        AsyncLogHandler handler = new AsyncLogHandler(delegate, CAPACITY, AsyncLogHandler.OverflowPolicy.BLOCK);
+        int threads = 3;
+        int messages = 2000;
+        List<Thread> producers = new ArrayList<>();
+
+        try {
+            for (int t = 0; t < threads; t++) {
+                String prefix = t + " ";
+                Thread producer = new Thread(() -> {
+                    for (int i = 0; i < messages; i++) {
+                        log(handler, prefix + i);
+                    }
+                });
+                producer.start();
+                producers.add(producer);
+            }
+
+            for (Thread producer : producers) producer.join();
+            handler.flush();
+        } finally {
+            handler.close();
+        }
+
+        assertEquals(threads * messages, delegate.messages.size());
+        int[] next = new int[threads];
+
+        for (String msg : delegate.messages) {
+            String[] parts = msg.split(" ");
+            int thread = Integer.parseInt(parts[0]);
+            assertEquals(next[thread]++, Integer.parseInt(parts[1]), "order of thread " + thread);
+        }
+    }
+
+    @Test
+    void dropReportsMessagesOverCapacity() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler delegate = new RecordingHandler() {
+            @Override
+            public void log(long time, LogLevel level, LogCategory category, String msg, Throwable exc, boolean fromReplay, boolean wasSuppressed) {
+                super.log(time, level, category, msg, exc, fromReplay, wasSuppressed);
+                writing.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        AsyncLogHandler handler = new AsyncLogHandler(delegate, CAPACITY, AsyncLogHandler.OverflowPolicy.DROP);
+
+        try {
+            log(handler, "0");
+            assertTrue(writing.await(10, TimeUnit.SECONDS), "writer didn't take the first message");
+
+            // the writer is stuck on the first message, its slot is free again
+            for (int i = 1; i <= 20; i++) {
+                log(handler, String.valueOf(i));
+            }
+
+            release.countDown();
+            handler.flush();
+
+            // wrapped around several times by now
+            for (int i = 21; i <= 30; i++) {
+                log(handler, String.valueOf(i));
+                handler.flush();
+            }
+        } finally {
+            release.countDown();
+            handler.close();
+        }
+
+        List<String> expected = new ArrayList<>(List.of("0", "1", "2", "3", "4",
+                "Dropped 16 log messages, the log buffer of 4 messages was full"));
+        for (int i = 21; i <= 30; i++) expected.add(String.valueOf(i));
+
+        assertEquals(expected, delegate.messages);
+    }
+
+    private static void log(LogHandler handler, String msg) {
+        handler.log(System.currentTimeMillis(), LogLevel.INFO, LogCategory.LOG, msg, null, false, false);
+    }
+
+    private static class RecordingHandler implements LogHandler {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void log(long time, LogLevel level, LogCategory category, String msg, Throwable exc, boolean fromReplay, boolean wasSuppressed) {
+            messages.add(msg);
+        }
+
+        @Override
+        public boolean shouldLog(LogLevel level, LogCategory category) {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
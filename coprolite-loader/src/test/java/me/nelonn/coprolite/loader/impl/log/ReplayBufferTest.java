@@ -0,0 +1,101 @@
+/*
+ * Copyright 2023 Michael Neonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.nelonn.coprolite.loader.impl.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplayBufferTest {
+    private static final long BUDGET = 300; // a handful of short messages
+
+    @Test
+    void spillsAndReplaysInOrder() {
+        ReplayBuffer buffer = new ReplayBuffer(BUDGET, true);
+
+        try {
+            add(buffer, "m", 50);
+            assertEquals(messages("m", 50), replay(buffer));
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    void replaysMessagesAddedByTheConsumer() {
+        ReplayBuffer buffer = new ReplayBuffer(BUDGET, true);
+        List<String> replayed = new ArrayList<>();
+        int[] added = new int[1];
+
+        try {
+            add(buffer, "m", 50);
+
+            // m46 to m49 are in memory, logging several messages per replayed one spills those not replayed yet
+            buffer.forEach((time, level, category, msg) -> {
+                replayed.add(msg);
+
+                for (int i = 0; i < 3 && msg.matches("m4[6-9]"); i++) {
+                    buffer.add(time, LogLevel.INFO, LogCategory.LOG, "c" + added[0]++, null);
+                }
+            });
+        } finally {
+            buffer.close();
+        }
+
+        List<String> expected = messages("m", 50);
+        expected.addAll(messages("c", 12));
+        assertEquals(expected, replayed);
+    }
+
+    @Test
+    void reportsDiscardedMessagesWithoutSpill() {
+        ReplayBuffer buffer = new ReplayBuffer(BUDGET, false);
+
+        try {
+            add(buffer, "m", 50);
+            List<String> replayed = replay(buffer);
+
+            assertTrue(replayed.get(0).endsWith("older log messages exceeded the buffer of 300 bytes and were discarded"), replayed.get(0));
+            int discarded = Integer.parseInt(replayed.get(0).substring(0, replayed.get(0).indexOf(' ')));
+            assertEquals(messages("m", 50).subList(discarded, 50), replayed.subList(1, replayed.size()));
+        } finally {
+            buffer.close();
+        }
+    }
+
+    private static void add(ReplayBuffer buffer, String prefix, int count) {
+        for (int i = 0; i < count; i++) {
+            buffer.add(System.currentTimeMillis(), LogLevel.INFO, LogCategory.LOG, prefix + i, null);
+        }
+    }
+
+    private static List<String> replay(ReplayBuffer buffer) {
+        List<String> ret = new ArrayList<>();
+        buffer.forEach((time, level, category, msg) -> ret.add(msg));
+        return ret;
+    }
+
+    private static List<String> messages(String prefix, int count) {
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) ret.add(prefix + i);
+        return ret;
+    }
+}
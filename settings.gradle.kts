@@ -1,4 +1,5 @@
 rootProject.name = "Coprolite"
 include("coprolite-api")
+include("coprolite-benchmarks")
 include("coprolite-launcher")
 include("coprolite-loader")